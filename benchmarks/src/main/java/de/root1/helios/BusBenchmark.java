@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures reading values from a {@link HeliosSimulator} connected in-process,
+ * through the bus and through the caches.
+ *
+ * @author achristian
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BusBenchmark {
+
+    private HeliosSimulator simulator;
+    private Helios h;
+    private HeliosVariableCache cache;
+
+    @Setup
+    public void setup() throws IOException, TelegramException {
+        simulator = new HeliosSimulator();
+        simulator.setResponseLatency(0);
+        h = new Helios(simulator.connect());
+        h.connect();
+        cache = h.getCachedVariables(60000).get("fanspeed");
+        cache.update(h.readValue("fanspeed"));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        h.disconnect();
+        simulator.stop();
+    }
+
+    /**
+     * Full poll: send request, wait for silence and response
+     */
+    @Benchmark
+    public int readValue() throws IOException, TelegramException {
+        return h.readValue("fanspeed");
+    }
+
+    /**
+     * Lookup in the register image
+     */
+    @Benchmark
+    public Integer cachedValue() {
+        return h.getCachedValue("fanspeed", Long.MAX_VALUE);
+    }
+
+    /**
+     * Path of a KNX read request on a cached variable
+     */
+    @Benchmark
+    public int variableCache() throws IOException, TelegramException {
+        return cache.forcedGet();
+    }
+
+}
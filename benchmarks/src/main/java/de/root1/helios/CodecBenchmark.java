@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures CRC calculation and conversion between raw and engineering values
+ *
+ * @author achristian
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    private final Helios h = new Helios("localhost", 4000);
+    private final byte[] telegram = {0x01, 0x11, 0x2F, 0x29, 0x0F, 0x79};
+
+    private final Variable temperatureVar = h.getVariable("inside_temp");
+    private final Variable fanspeedVar = h.getVariable("fanspeed");
+    private final Variable bitVar = h.getVariable("fan_in_on_off");
+
+    private byte rawTemperature = (byte) 0x9C;
+    private byte rawFanspeed = 0x0F;
+    private byte rawBits = 0x0A;
+    private int temperature = 21;
+
+    @Benchmark
+    public byte crc() {
+        return h.calculateCRC(telegram);
+    }
+
+    @Benchmark
+    public int rawToTemperature() {
+        return temperatureVar.toValue(rawTemperature);
+    }
+
+    @Benchmark
+    public int rawToFanspeed() {
+        return fanspeedVar.toValue(rawFanspeed);
+    }
+
+    @Benchmark
+    public int rawToBit() {
+        return bitVar.toValue(rawBits);
+    }
+
+    @Benchmark
+    public int temperatureToRaw() {
+        return temperatureVar.toRaw(temperature, (byte) 0);
+    }
+
+    @Benchmark
+    public int bitToRaw() {
+        return bitVar.toRaw(0, rawBits);
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the search for telegrams in the received bytes, per byte. The
+ * receive buffer is filled with telegrams, mixed with the given share of
+ * garbage bytes.
+ *
+ * @author achristian
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FramingBenchmark {
+
+    private static final int CAPACITY = 1024;
+    private static final int TELEGRAM_LENGTH = 6;
+    // bytes in the buffer: as many whole telegrams as fit, so that frame()
+    // never takes the overrun path
+    private static final int BYTES = CAPACITY / TELEGRAM_LENGTH * TELEGRAM_LENGTH;
+
+    /**
+     * share of garbage bytes in percent
+     */
+    @Param({"0", "50", "90"})
+    public int garbage;
+
+    private final Helios h = new Helios("localhost", 4000);
+    private final ReceiveBuffer buffer = new ReceiveBuffer(CAPACITY);
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        long time = 0;
+        while (buffer.getCount() < BYTES) {
+            // the tail that cannot take a whole telegram anymore is garbage
+            if (random.nextInt(100) < garbage || buffer.getCount() + TELEGRAM_LENGTH > BYTES) {
+                buffer.put((byte) random.nextInt(256), time);
+            } else {
+                byte[] telegram = {0x01, 0x11, 0x2F, (byte) random.nextInt(256), (byte) random.nextInt(256), 0};
+                telegram[5] = h.calculateCRC(telegram);
+                for (byte b : telegram) {
+                    buffer.put(b, time);
+                }
+            }
+            time++;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BYTES)
+    public long frame() {
+        return h.frame(buffer, 0);
+    }
+
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of the health of the bus connection. Failed attempts are retried
+ * with a jittered, exponentially growing delay. Failures are counted per lane
+ * of the {@link BusScheduler}: after too many failures of a lane in a row,
+ * without any successful request of another lane meanwhile, or if the
+ * connection is lost, the circuit is opened. A single unit that does not
+ * answer does not affect the others. While the circuit is open, requests fail
+ * immediately, while a background thread reconnects with growing delays.
+ * After a reconnect, a single trial request decides whether the bus is
+ * available again, all others fail until it is done.
+ *
+ * @author achristian
+ */
+class BusHealth {
+
+    private static final Logger log = LoggerFactory.getLogger(BusHealth.class);
+
+    enum State {
+
+        /**
+         * bus is available
+         */
+        CLOSED,
+        /**
+         * bus is unavailable, requests fail immediately
+         */
+        OPEN,
+        /**
+         * reconnected, the next request is a trial, others fail immediately
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * Re-establishes the connection to the bus
+     */
+    interface Connector {
+
+        void reconnect() throws IOException;
+    }
+
+    private final Connector connector;
+    private final int failureThreshold;
+    private final long retryDelay;
+    private final long maxRetryDelay;
+    private final long reconnectDelay;
+    private final long maxReconnectDelay;
+    private final Random random = new Random();
+
+    private State state = State.CLOSED;
+    // failed attempts in a row, by lane
+    private final int[] failures = new int[BusScheduler.LANES];
+    // number of successful requests when the failures of a lane started
+    private final long[] failuresSince = new long[BusScheduler.LANES];
+    private long successes;
+    // the request executed as trial while half open
+    private Object trial;
+    private Thread reconnector;
+
+    /**
+     * @param connector re-establishes the connection
+     * @param failureThreshold number of failed attempts in a row that open
+     * the circuit
+     * @param retryDelay delay in ms after the first failed attempt
+     * @param maxRetryDelay max. delay in ms between attempts
+     * @param reconnectDelay delay in ms before the first reconnect
+     * @param maxReconnectDelay max. delay in ms between reconnects
+     */
+    BusHealth(Connector connector, int failureThreshold, long retryDelay, long maxRetryDelay, long reconnectDelay, long maxReconnectDelay) {
+        this.connector = connector;
+        this.failureThreshold = failureThreshold;
+        this.retryDelay = retryDelay;
+        this.maxRetryDelay = maxRetryDelay;
+        this.reconnectDelay = reconnectDelay;
+        this.maxReconnectDelay = maxReconnectDelay;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return false, if new requests should fail immediately
+     */
+    synchronized boolean allowRequest() {
+        return state == State.CLOSED || (state == State.HALF_OPEN && trial == null);
+    }
+
+    /**
+     * Called before each attempt of a request. While half open, the first
+     * request becomes the trial, all others are rejected until it is done.
+     *
+     * @param request the request
+     * @return false, if the request should fail immediately
+     */
+    synchronized boolean beginAttempt(Object request) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if (trial == null) {
+                    log.debug("Bus reconnected, executing trial request");
+                    trial = request;
+                }
+                return trial == request;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param lane lane of the successful request
+     */
+    synchronized void recordSuccess(int lane) {
+        failures[lane] = 0;
+        successes++;
+        trial = null;
+        if (state != State.CLOSED) {
+            log.info("Bus is available again");
+            state = State.CLOSED;
+        }
+    }
+
+    /**
+     * @param lane lane of the failed request
+     */
+    synchronized void recordFailure(int lane) {
+        if (failures[lane]++ == 0) {
+            failuresSince[lane] = successes;
+        }
+        if (state == State.HALF_OPEN) {
+            open("trial request failed");
+        } else if (state == State.CLOSED && failures[lane] >= failureThreshold && failuresSince[lane] == successes) {
+            open(failures[lane] + " failed attempts");
+        }
+    }
+
+    /**
+     * Called if the connection to the bus has been lost
+     */
+    synchronized void connectionLost() {
+        if (state != State.OPEN) {
+            open("connection lost");
+        }
+    }
+
+    /**
+     * @param attempt number of the failed attempt, starting with 1
+     * @return delay in ms before the next attempt
+     */
+    long getRetryDelay(int attempt) {
+        return backoff(attempt, retryDelay, maxRetryDelay);
+    }
+
+    /**
+     * Stops reconnecting, e.g. if the connection is closed intentionally
+     */
+    synchronized void stop() {
+        if (reconnector != null) {
+            reconnector.interrupt();
+            reconnector = null;
+        }
+        state = State.CLOSED;
+        trial = null;
+        Arrays.fill(failures, 0);
+    }
+
+    /**
+     * Exponential backoff with "equal jitter": half of the delay is fixed, the
+     * other half is random, so that retries of several clients spread.
+     */
+    private long backoff(int attempt, long base, long max) {
+        long delay = Math.min(max, base << Math.min(attempt - 1, 30));
+        long half = delay / 2;
+        return half + (long) (random.nextDouble() * (delay - half));
+    }
+
+    private void open(String reason) {
+        log.warn("Bus unavailable ({}), failing fast until reconnected", reason);
+        state = State.OPEN;
+        trial = null;
+        if (reconnector != null) {
+            return;
+        }
+        reconnector = new Thread("HeliosReconnect") {
+
+            @Override
+            public void run() {
+                int attempt = 1;
+                while (!isInterrupted()) {
+                    try {
+                        long delay = backoff(attempt, reconnectDelay, maxReconnectDelay);
+                        log.debug("Reconnect attempt #{} in {}ms", attempt, delay);
+                        Thread.sleep(delay);
+                        connector.reconnect();
+                        synchronized (BusHealth.this) {
+                            if (reconnector == this) {
+                                reconnector = null;
+                                Arrays.fill(failures, 0);
+                                state = BusHealth.State.HALF_OPEN;
+                            }
+                        }
+                        return;
+                    } catch (InterruptedException ex) {
+                        return;
+                    } catch (IOException ex) {
+                        log.warn("Reconnect attempt #{} failed: {}", attempt, ex.getMessage());
+                        attempt++;
+                    }
+                }
+            }
+        };
+        reconnector.setDaemon(true);
+        reconnector.start();
+    }
+
+}
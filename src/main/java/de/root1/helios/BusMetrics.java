@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms of the bus communication, in total, per
+ * variable and per hour of day. Times are recorded in microseconds.
+ *
+ * @author achristian
+ */
+public class BusMetrics implements BusMetricsMBean {
+
+    private final Variable[] variables;
+
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong pollFailures = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong telegrams = new AtomicLong();
+    private final AtomicLong garbageBytes = new AtomicLong();
+    // by variable index
+    private final AtomicLongArray retries;
+
+    private final LatencyHistogram silenceWait = new LatencyHistogram();
+    private final LatencyHistogram pollRoundTrip = new LatencyHistogram();
+    private final LatencyHistogram writeDuration = new LatencyHistogram();
+    private final LatencyHistogram readAttempts = new LatencyHistogram();
+    private final LatencyHistogram garbageBeforeTelegram = new LatencyHistogram();
+    // by variable index
+    private final LatencyHistogram[] pollRoundTripByVariable;
+    private final LatencyHistogram[] writeDurationByVariable;
+    // by hour of day
+    private final LatencyHistogram[] pollRoundTripByHour = new LatencyHistogram[24];
+
+    BusMetrics(Variable[] variables) {
+        this.variables = variables;
+        retries = new AtomicLongArray(variables.length);
+        pollRoundTripByVariable = new LatencyHistogram[variables.length];
+        writeDurationByVariable = new LatencyHistogram[variables.length];
+        for (int i = 0; i < variables.length; i++) {
+            pollRoundTripByVariable[i] = new LatencyHistogram();
+            writeDurationByVariable[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < pollRoundTripByHour.length; i++) {
+            pollRoundTripByHour[i] = new LatencyHistogram();
+        }
+    }
+
+    void recordSilenceWait(long micros) {
+        silenceWait.record(micros);
+    }
+
+    void recordPoll(Variable var, long micros) {
+        polls.incrementAndGet();
+        pollRoundTrip.record(micros);
+        pollRoundTripByVariable[var.index].record(micros);
+        pollRoundTripByHour[Calendar.getInstance().get(Calendar.HOUR_OF_DAY)].record(micros);
+    }
+
+    void recordPollFailure(Variable var, int attempt) {
+        pollFailures.incrementAndGet();
+        if (attempt > 1) {
+            retries.incrementAndGet(var.index);
+        }
+    }
+
+    /**
+     * @param attempts number of attempts a read needed, including failed ones
+     */
+    void recordReadAttempts(int attempts) {
+        readAttempts.record(attempts);
+    }
+
+    void recordWrite(Variable var, long micros) {
+        writes.incrementAndGet();
+        writeDuration.record(micros);
+        writeDurationByVariable[var.index].record(micros);
+    }
+
+    void recordReconnect() {
+        reconnects.incrementAndGet();
+    }
+
+    /**
+     * @param skipped bytes received before the telegram that are not part of
+     * any telegram
+     */
+    void recordTelegram(int skipped) {
+        telegrams.incrementAndGet();
+        if (skipped > 0) {
+            garbageBytes.addAndGet(skipped);
+        }
+        garbageBeforeTelegram.record(skipped);
+    }
+
+    @Override
+    public long getPolls() {
+        return polls.get();
+    }
+
+    @Override
+    public long getPollFailures() {
+        return pollFailures.get();
+    }
+
+    @Override
+    public long getRetries() {
+        long sum = 0;
+        for (int i = 0; i < retries.length(); i++) {
+            sum += retries.get(i);
+        }
+        return sum;
+    }
+
+    @Override
+    public long getWrites() {
+        return writes.get();
+    }
+
+    @Override
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    @Override
+    public long getTelegrams() {
+        return telegrams.get();
+    }
+
+    @Override
+    public long getGarbageBytes() {
+        return garbageBytes.get();
+    }
+
+    @Override
+    public double getPollRoundTripMean() {
+        return pollRoundTrip.getMean();
+    }
+
+    @Override
+    public long getPollRoundTrip99() {
+        return pollRoundTrip.getPercentile(99);
+    }
+
+    @Override
+    public long getPollRoundTripMax() {
+        return pollRoundTrip.getMax();
+    }
+
+    @Override
+    public double getSilenceWaitMean() {
+        return silenceWait.getMean();
+    }
+
+    @Override
+    public long getSilenceWait99() {
+        return silenceWait.getPercentile(99);
+    }
+
+    @Override
+    public double getWriteDurationMean() {
+        return writeDuration.getMean();
+    }
+
+    @Override
+    public String getReport() {
+        StringBuilder sb = new StringBuilder();
+        appendCounter(sb, "helios_polls_total", "", polls.get());
+        appendCounter(sb, "helios_poll_failures_total", "", pollFailures.get());
+        appendCounter(sb, "helios_writes_total", "", writes.get());
+        appendCounter(sb, "helios_reconnects_total", "", reconnects.get());
+        appendCounter(sb, "helios_telegrams_total", "", telegrams.get());
+        appendCounter(sb, "helios_garbage_bytes_total", "", garbageBytes.get());
+        appendHistogram(sb, "helios_silence_wait_us", "", silenceWait);
+        appendHistogram(sb, "helios_poll_rtt_us", "", pollRoundTrip);
+        appendHistogram(sb, "helios_write_duration_us", "", writeDuration);
+        appendHistogram(sb, "helios_read_attempts", "", readAttempts);
+        appendHistogram(sb, "helios_garbage_bytes_before_telegram", "", garbageBeforeTelegram);
+        for (Variable var : variables) {
+            String labels = "var=\"" + var.name + "\"";
+            appendCounter(sb, "helios_retries_total", labels, retries.get(var.index));
+            appendHistogram(sb, "helios_poll_rtt_us", labels, pollRoundTripByVariable[var.index]);
+            appendHistogram(sb, "helios_write_duration_us", labels, writeDurationByVariable[var.index]);
+        }
+        for (int hour = 0; hour < pollRoundTripByHour.length; hour++) {
+            appendHistogram(sb, "helios_poll_rtt_us", "hour=\"" + hour + "\"", pollRoundTripByHour[hour]);
+        }
+        return sb.toString();
+    }
+
+    private void appendCounter(StringBuilder sb, String name, String labels, long value) {
+        sb.append(name);
+        if (!labels.isEmpty()) {
+            sb.append('{').append(labels).append('}');
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+
+    private void appendHistogram(StringBuilder sb, String name, String labels, LatencyHistogram histogram) {
+        if (histogram.getCount() == 0) {
+            return;
+        }
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        appendCounter(sb, name + "_count", labels, histogram.getCount());
+        sb.append(name).append("_mean");
+        if (!labels.isEmpty()) {
+            sb.append('{').append(labels).append('}');
+        }
+        sb.append(' ').append(String.format(Locale.ROOT, "%.1f", histogram.getMean())).append('\n');
+        appendCounter(sb, name, prefix + "quantile=\"0.5\"", histogram.getPercentile(50));
+        appendCounter(sb, name, prefix + "quantile=\"0.9\"", histogram.getPercentile(90));
+        appendCounter(sb, name, prefix + "quantile=\"0.99\"", histogram.getPercentile(99));
+        appendCounter(sb, name + "_max", labels, histogram.getMax());
+    }
+
+}
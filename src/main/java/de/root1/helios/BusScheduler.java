@@ -0,0 +1,414 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Owns the bus: all requests are executed one after another by a single
+ * thread. Pending requests are ordered by their priority, so writes are
+ * executed before read requests, and read requests before background
+ * refreshes. A failed attempt is queued again, so that more important
+ * requests can be executed in between. While the {@link BusHealth} reports
+ * the bus as unavailable, requests fail immediately.
+ * <p>
+ * Each request belongs to a lane, one per ventilation unit. Within the same
+ * priority, the lanes take turns, so a unit with many pending requests does
+ * not delay the requests of the other units. A lane can be put on hold without
+ * stopping the others. A failed request waits for its retry delay the same
+ * way, the bus thread itself never sleeps.
+ *
+ * @author achristian
+ */
+class BusScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(BusScheduler.class);
+
+    /**
+     * Priority lanes, most important first
+     */
+    enum Priority {
+
+        WRITE, READ, BACKGROUND
+    }
+
+    /**
+     * A request to be executed on the bus
+     *
+     * @param <T> type of result
+     */
+    static abstract class Request<T> extends HeliosPromise<T> implements Comparable<Request<?>> {
+
+        private Priority priority;
+        private long seq;
+        private long round;
+        private final int lane;
+        private final String key;
+        private final int maxAttempts;
+        private int attempt;
+        // not executed again before this time after a failed attempt
+        private long notBefore;
+
+        /**
+         * @param priority the priority lane
+         * @param key requests with the same key are merged, as long as they
+         * are pending. <code>null</code> to never merge.
+         * @param maxAttempts max. number of attempts
+         */
+        Request(Priority priority, String key, int maxAttempts) {
+            this(0, priority, key, maxAttempts);
+        }
+
+        /**
+         * @param lane the lane, in range [0..{@link #LANES}-1], e.g. the
+         * number of the ventilation unit
+         * @param priority the priority lane
+         * @param key requests with the same key are merged, as long as they
+         * are pending. <code>null</code> to never merge.
+         * @param maxAttempts max. number of attempts
+         */
+        Request(int lane, Priority priority, String key, int maxAttempts) {
+            this.lane = lane;
+            this.priority = priority;
+            this.key = key;
+            this.maxAttempts = maxAttempts;
+        }
+
+        /**
+         * Executes one attempt on the bus thread
+         *
+         * @return the result
+         * @throws Exception if the attempt failed
+         */
+        abstract T execute() throws Exception;
+
+        /**
+         * Called on the bus thread when the last attempt failed
+         */
+        void exhausted() {
+        }
+
+        /**
+         * Creates the exception that is thrown to the caller when all
+         * attempts failed.
+         *
+         * @param last exception of the last attempt
+         * @return exception for the caller
+         */
+        Exception failure(Exception last) {
+            return last;
+        }
+
+        int getAttempt() {
+            return attempt;
+        }
+
+        Priority getPriority() {
+            return priority;
+        }
+
+        int getLane() {
+            return lane;
+        }
+
+        @Override
+        public int compareTo(Request<?> o) {
+            int c = priority.compareTo(o.priority);
+            if (c == 0) {
+                c = Long.compare(round, o.round);
+            }
+            if (c == 0) {
+                c = Long.compare(seq, o.seq);
+            }
+            return c;
+        }
+    }
+
+    /**
+     * Number of lanes: lane 0 plus one per ventilation unit 1..15
+     */
+    static final int LANES = 16;
+
+    private final PriorityBlockingQueue<Request<?>> queue = new PriorityBlockingQueue<>();
+    private final Map<String, Request<?>> pending = new HashMap<>();
+    private final AtomicLong seq = new AtomicLong();
+    private final BusHealth health;
+    private Thread thread;
+    // round of the last request taken from the queue
+    private long round;
+    // round of the last request submitted per lane
+    private final long[] laneRound = new long[LANES];
+    // no request of a lane is executed before this time
+    private final long[] holdUntil = new long[LANES];
+    // requests taken from the queue while their lane is on hold, and failed
+    // requests waiting for their retry delay
+    private final List<Request<?>> held = new ArrayList<>();
+
+    /**
+     * @param health decides about delays after failed attempts and whether
+     * the bus is available
+     */
+    BusScheduler(BusHealth health) {
+        this.health = health;
+    }
+
+    synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread("HeliosBus") {
+
+            @Override
+            public void run() {
+                while (!isInterrupted()) {
+                    try {
+                        process(next());
+                    } catch (InterruptedException ex) {
+                        interrupt();
+                    }
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the bus thread and waits until it has finished. Pending requests
+     * fail. Can be started again.
+     */
+    void stop() {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+            thread = null;
+        }
+        if (t == null) {
+            return;
+        }
+        t.interrupt();
+        try {
+            t.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        List<Request<?>> dropped = new ArrayList<>();
+        synchronized (pending) {
+            queue.drainTo(dropped);
+            pending.clear();
+        }
+        synchronized (held) {
+            dropped.addAll(held);
+            held.clear();
+        }
+        for (Request<?> request : dropped) {
+            request.fail(new TelegramException("Bus stopped"));
+        }
+    }
+
+    /**
+     * Queues a request. If there is already a pending request with the same
+     * key, that one is returned instead and gets the higher of both
+     * priorities. If the bus is unavailable or stopped, the request fails
+     * immediately.
+     *
+     * @param <T> type of result
+     * @param request the request
+     * @return the queued request, to wait for the result
+     */
+    <T> Request<T> submit(Request<T> request) {
+        if (!health.allowRequest()) {
+            request.fail(new TelegramException("Bus unavailable, waiting for reconnect"));
+            return request;
+        }
+        // under the lock of stop(), so nothing is queued after it has drained
+        // the queue
+        synchronized (this) {
+            if (thread == null) {
+                request.fail(new TelegramException("Bus stopped"));
+                return request;
+            }
+            return enqueue(request);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Request<T> enqueue(Request<T> request) {
+        synchronized (pending) {
+            if (request.key != null) {
+                Request<T> existing = (Request<T>) pending.get(request.key);
+                if (existing != null) {
+                    if (request.priority.compareTo(existing.priority) < 0 && queue.remove(existing)) {
+                        log.trace("Raising priority of pending '{}' to {}", request.key, request.priority);
+                        existing.priority = request.priority;
+                        queue.add(existing);
+                    }
+                    return existing;
+                }
+                pending.put(request.key, request);
+            }
+            request.seq = seq.incrementAndGet();
+            // a lane's next request comes after all lanes had their turn
+            request.round = Math.max(round, laneRound[request.lane]) + 1;
+            laneRound[request.lane] = request.round;
+            queue.add(request);
+        }
+        return request;
+    }
+
+    /**
+     * Waits for the result of a request or of an operation built of requests.
+     * Must not be called on the bus thread.
+     *
+     * @param <T> type of result
+     * @param future the request or operation
+     * @return the result
+     * @throws IOException in case of problems with stream communication
+     * @throws TelegramException in case of read/write problems with telegram
+     */
+    <T> T await(HeliosFuture<T> future) throws IOException, TelegramException {
+        if (Thread.currentThread() == thread) {
+            throw new IllegalStateException("Cannot wait for bus request on bus thread");
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new TelegramException("Interrupted while waiting for bus", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof TelegramException) {
+                throw (TelegramException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new TelegramException("Bus request failed", cause);
+        }
+    }
+
+    /**
+     * Executes no request of the given lane before the given time, e.g. while
+     * the ventilation unit is busy after a power state change. Requests of
+     * other lanes are executed meanwhile. Does not block the caller.
+     *
+     * @param lane the lane
+     * @param time time in ms
+     */
+    void holdUntil(int lane, long time) {
+        synchronized (held) {
+            holdUntil[lane] = Math.max(holdUntil[lane], time);
+        }
+    }
+
+    /**
+     * @return time in ms until the request may be executed, &lt;= 0 if it
+     * may be executed now
+     */
+    private long remainingHold(Request<?> request, long now) {
+        return Math.max(holdUntil[request.lane], request.notBefore) - now;
+    }
+
+    /**
+     * Takes the next request from the queue whose lane is not on hold and
+     * whose retry delay has elapsed
+     */
+    private Request<?> next() throws InterruptedException {
+        while (true) {
+            long wait = Long.MAX_VALUE;
+            synchronized (held) {
+                long now = System.currentTimeMillis();
+                for (Iterator<Request<?>> it = held.iterator(); it.hasNext();) {
+                    Request<?> request = it.next();
+                    long remaining = remainingHold(request, now);
+                    if (remaining <= 0) {
+                        it.remove();
+                        queue.add(request);
+                    } else {
+                        wait = Math.min(wait, remaining);
+                    }
+                }
+            }
+            Request<?> request = wait == Long.MAX_VALUE ? queue.take() : queue.poll(wait, TimeUnit.MILLISECONDS);
+            if (request == null) {
+                continue;
+            }
+            synchronized (held) {
+                long remaining = remainingHold(request, System.currentTimeMillis());
+                if (remaining > 0) {
+                    log.debug("Lane {} on hold for {}ms, {} request waits", new Object[]{request.lane, remaining, request.getPriority()});
+                    held.add(request);
+                    continue;
+                }
+            }
+            synchronized (pending) {
+                round = Math.max(round, request.round);
+            }
+            return request;
+        }
+    }
+
+    private <T> void process(Request<T> request) {
+        if (request.attempt == 0) {
+            synchronized (pending) {
+                // from now on, new requests with same key need a new execution
+                if (request.key != null && pending.get(request.key) == request) {
+                    pending.remove(request.key);
+                }
+            }
+        }
+        if (!health.beginAttempt(request)) {
+            request.fail(new TelegramException("Bus unavailable, waiting for reconnect"));
+            return;
+        }
+        request.attempt++;
+        try {
+            T result = request.execute();
+            health.recordSuccess(request.lane);
+            request.complete(result);
+        } catch (Exception ex) {
+            health.recordFailure(request.lane);
+            if (request.attempt < request.maxAttempts && health.allowRequest()) {
+                long delay = health.getRetryDelay(request.attempt);
+                log.debug("Attempt #{} of {} request failed, queue again in {}ms. ExceptionMessage={}", new Object[]{request.attempt, request.priority, delay, ex.getMessage()});
+                // other requests are executed meanwhile
+                synchronized (held) {
+                    request.notBefore = System.currentTimeMillis() + delay;
+                    held.add(request);
+                }
+            } else {
+                request.exhausted();
+                request.fail(request.failure(ex));
+            }
+        }
+    }
+
+}
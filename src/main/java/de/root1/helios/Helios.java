@@ -18,20 +18,21 @@
  */
 package de.root1.helios;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.Socket;
-import java.net.SocketException;
-import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedSelectorException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.logging.Level;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -76,6 +77,8 @@ public class Helios {
     };
 
     private final Map<String, Variable> variables = new HashMap<>();
+    // variables located in each register, by varid
+    private final Variable[][] registerVariables = new Variable[256][];
 
     public static final int[] CONST_TEMPERATURE = {
         -74, -70, -66, -62, -59, -56, -54, -52, -50, -48, -47, -46, -44, -43, -42, -41, -40, -39, -38, -37, -36,
@@ -89,32 +92,130 @@ public class Helios {
         44, 45, 45, 46, 47, 48, 48, 49, 50, 51, 52, 53, 53, 54, 55, 56, 57, 59, 60, 61, 62, 63, 65, 66, 68, 69, 71, 73,
         75, 77, 79, 81, 82, 86, 90, 93, 97, 100, 100, 100, 100, 100, 100, 100, 100, 100};
 
-    private Socket socket;
-    private OutputStream outputStream;
-    private InputStream inputStream;
-    private boolean isConnected;
+    private final Transport transport;
+    private volatile boolean isConnected;
+    private volatile BusReader busReader;
+    // max. time to wait for the bus reader to stop
+    private static final long READER_STOP_TIMEOUT = 2000;
+
+    // max. time between arrival of first and last byte of a telegram, 
+    // 6 bytes need about 6ms at 9600 baud, plus some latency of the gateway
+    private static final long TELEGRAM_MAX_SPAN = 50;
+    private final TelegramDecoder decoder = new TelegramDecoder(new TelegramDecoder.Listener() {
+
+        @Override
+        public void telegramDecoded(byte[] telegram, int skipped) {
+            metrics.recordTelegram(skipped);
+            telegramReceived(telegram);
+        }
+    }, TELEGRAM_MAX_SPAN);
+
+    // minimum time without any traffic before we may send
+    private final long SILENCE_TIME = 7;
+
+    // the last valid telegrams seen on the bus, used to find responses
+    private final byte[][] receivedTelegrams = new byte[16][];
+    private long receivedCount;
+    private long sendMark;
+
+    // ventilation units in use, by number, see getUnit()
+    private final HeliosUnit[] units = new HeliosUnit[16];
+    private volatile HeliosUnit[] activeUnits = new HeliosUnit[0];
+    private final BusMetrics metrics = new BusMetrics(CONST_MAP_VARIABLES_TO_ID);
+
+    // shared by all instances in this JVM, runs variable listeners and future
+    // callbacks one after another, in bus order
+    static final ExecutorService listenerExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "HeliosVariableListener");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    private volatile boolean passiveListening;
+    private volatile boolean broadcastWrites = true;
 
     // delay between two waitForSilence+send commands
     private final long SEND_DELAY = 50;
 
     // delay before retry reading
     private final long RETRY_DELAY = 10;
+    private final long MAX_RETRY_DELAY = 1000;
+    private final int MAX_READ_ATTEMPTS = 10;
+    // delay before reconnecting after the bus became unavailable
+    private final long RECONNECT_DELAY = 500;
+    private final long MAX_RECONNECT_DELAY = 30000;
+    // time the ventilation unit needs after a power state change
+    private final long POWER_SETTLE_TIME = 15000;
+    // delays of restoring the fanspeed after boost
+    private final long BOOST_CHECK_DELAY = 5000;
+    private final long BOOST_REMAINING_INTERVAL = 65 * 1000; // a bit more than 1min
+
+    // runs delayed continuations, e.g. restoring fanspeed after boost, shared
+    // by all instances in this JVM
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "HeliosTimer");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final BusHealth health = new BusHealth(new BusHealth.Connector() {
+
+        @Override
+        public void reconnect() throws IOException {
+            Helios.this.reconnect();
+        }
+    }, MAX_READ_ATTEMPTS, RETRY_DELAY, MAX_RETRY_DELAY, RECONNECT_DELAY, MAX_RECONNECT_DELAY);
+
+    // all bus communication is done by the bus scheduler's thread
+    private final BusScheduler scheduler = new BusScheduler(health);
+
+    // time our last poll request has been answered
+    private long lastResponse;
     
     // init lastSend so, that 1st send can run immediately
     private long lastSend = System.currentTimeMillis() - SEND_DELAY;
-    private final int port;
-    private final String host;
     private boolean reconnect;
+    // installations using this bus, see attach()
+    private int users;
     
     private boolean restoreFanspeed;
 
+    /**
+     * Creates an instance that connects to a RS485-over-TCP gateway
+     *
+     * @param host hostname or ip of gateway
+     * @param port tcp port of gateway
+     */
     public Helios(String host, int port) {
-        this.host = host;
-        this.port = port;
+        this(new TcpTransport(host, port));
+    }
 
-        // fill into lookupable hashmap
-        for (Variable var : CONST_MAP_VARIABLES_TO_ID) {
+    /**
+     * @param transport the connection to the bus
+     */
+    Helios(Transport transport) {
+        this.transport = transport;
+
+        // fill into lookupable hashmap and index
+        for (int i = 0; i < CONST_MAP_VARIABLES_TO_ID.length; i++) {
+            Variable var = CONST_MAP_VARIABLES_TO_ID[i];
+            var.index = i;
             variables.put(var.name, var);
+            Variable[] inRegister = registerVariables[var.varid & 0xFF];
+            if (inRegister == null) {
+                inRegister = new Variable[]{var};
+            } else {
+                inRegister = Arrays.copyOf(inRegister, inRegister.length + 1);
+                inRegister[inRegister.length - 1] = var;
+            }
+            registerVariables[var.varid & 0xFF] = inRegister;
         }
 
     }
@@ -123,46 +224,330 @@ public class Helios {
         return new ArrayList(variables.keySet());
     }
     
+    /**
+     * Creates a cache for each variable of the 1st ventilation unit. All
+     * caches share the register cache of the unit, so variables located in the
+     * same register are read from the bus only once per <code>maxtime</code>.
+     *
+     * @param maxtime max. time in ms a value is kept in cache
+     * @return map with variable name and cache
+     * @see HeliosUnit#getCachedVariables(int)
+     */
     public Map<String, HeliosVariableCache> getCachedVariables(int maxtime) {
-        Map<String, HeliosVariableCache> map = new HashMap<>();
-        for (String varname : variables.keySet()) {
-            map.put(varname, new HeliosVariableCache(this, varname, maxtime));
+        return getUnit(1).getCachedVariables(maxtime);
+    }
+
+    /**
+     * Like {@link #getCachedVariables(int)}, but indexed by variable index
+     *
+     * @param maxtime max. time in ms a value is kept in cache
+     * @return array with a cache for each variable, see
+     * {@link #getVariableIndex(java.lang.String)}
+     */
+    public HeliosVariableCache[] getCachedVariableArray(int maxtime) {
+        return getUnit(1).getCachedVariableArray(maxtime);
+    }
+
+    /**
+     * Returns a ventilation unit on the bus. The methods of this class without
+     * unit address the 1st unit. Values of other units are only sent to the
+     * unit itself and to the remote control with the same number, values of
+     * the 1st unit are broadcast unless disabled with
+     * {@link #setBroadcastWrites(boolean)}.
+     *
+     * @param number number of unit, in range [1..15] (mainboard address
+     * 0x11..0x1F)
+     * @return the unit
+     * @throws IllegalArgumentException if number is out of range
+     */
+    public synchronized HeliosUnit getUnit(int number) {
+        if (number < 1 || number > 15) {
+            throw new IllegalArgumentException("Unit " + number + " out of range [1..15].");
+        }
+        HeliosUnit unit = units[number];
+        if (unit == null) {
+            unit = new HeliosUnit(this, number);
+            units[number] = unit;
+            HeliosUnit[] active = Arrays.copyOf(activeUnits, activeUnits.length + 1);
+            active[active.length - 1] = unit;
+            activeUnits = active;
         }
-        return map;
+        return unit;
     }
-    
+
+    /**
+     * @return all units in use, see {@link #getUnit(int)}
+     */
+    public List<HeliosUnit> getUnits() {
+        return Arrays.asList(activeUnits);
+    }
+
     public Variable getVariable(String variableName) {
         return variables.get(variableName);
     }
 
+    /**
+     * @param index index of variable, in range [0..{@link #getVariableCount()}-1]
+     * @return the variable
+     * @throws IllegalArgumentException if index is out of range
+     */
+    public Variable getVariable(int index) {
+        if (index < 0 || index >= CONST_MAP_VARIABLES_TO_ID.length) {
+            throw new IllegalArgumentException("Variable index " + index + " unknown.");
+        }
+        return CONST_MAP_VARIABLES_TO_ID[index];
+    }
+
+    /**
+     * Resolves the name of a variable to its index. The index can be used with
+     * the int-overloads of the read/write methods, to avoid looking up the
+     * name again and again.
+     *
+     * @param varname name of variable
+     * @return index of variable, -1 if variable is unknown
+     */
+    public int getVariableIndex(String varname) {
+        Variable var = variables.get(varname);
+        return var == null ? -1 : var.index;
+    }
+
+    /**
+     * @param varname name of variable
+     * @return the variable
+     * @throws IllegalArgumentException if variable is unknown
+     */
+    Variable lookupVariable(String varname) {
+        Variable var = variables.get(varname);
+        if (var == null) {
+            throw new IllegalArgumentException("Variable '" + varname + "' unknown.");
+        }
+        return var;
+    }
+
+    /**
+     * @return number of variables
+     */
+    public int getVariableCount() {
+        return CONST_MAP_VARIABLES_TO_ID.length;
+    }
+
+    /**
+     * @return counters and latency histograms of the bus communication
+     */
+    public BusMetrics getMetrics() {
+        return metrics;
+    }
+
     public void connect() throws IOException {
         if (!reconnect)
             log.info("Connecting...");
-        socket = new Socket(host, port);
-        socket.setTcpNoDelay(true);
-//        socket.setSoTimeout(2000); // ms
-        inputStream = new BufferedInputStream(socket.getInputStream());
-        outputStream = new BufferedOutputStream(socket.getOutputStream());
+        // the old reader must not read from the new connection
+        stopBusReader();
+        transport.connect();
         isConnected = true;
+        decoder.reset();
+        busReader = new BusReader(transport);
+        busReader.start();
+        scheduler.start();
         if (!reconnect)
             log.info("Connected!");
     }
 
     public void disconnect() throws IOException {
-        if (!reconnect)
+        if (!reconnect) {
             log.info("Disconnecting...");
-        if (inputStream != null) {
-            inputStream.close();
-        }
-        if (outputStream != null) {
-            outputStream.close();
-        }
-        if (socket != null) {
-            socket.close();
+            health.stop();
         }
+        // tell the bus reader that the following exception is intended
         isConnected = false;
-        if (!reconnect)
+        BusReader reader = busReader;
+        if (reader != null) {
+            reader.stopped = true;
+        }
+        transport.disconnect();
+        stopBusReader();
+        if (!reconnect) {
+            scheduler.stop();
             log.info("Disconnected!");
+        }
+    }
+
+    /**
+     * Connects, if this is the first user of a bus shared by several
+     * installations
+     *
+     * @throws IOException if connection cannot be established
+     */
+    synchronized void attach() throws IOException {
+        if (users == 0) {
+            connect();
+        }
+        users++;
+    }
+
+    /**
+     * Disconnects, if this was the last user of a shared bus. Requests still
+     * pending then, and all requests submitted later, fail at once.
+     *
+     * @throws IOException if disconnecting fails
+     */
+    synchronized void detach() throws IOException {
+        if (users > 0 && --users == 0) {
+            disconnect();
+        }
+    }
+
+    /**
+     * Decides how values of unit 1 are written. If enabled, as by default,
+     * they are sent to all remote controls and all mainboards, which keeps
+     * the remote controls in sync. Must be disabled if there are several
+     * units on the bus, as the broadcast would change all of them. Other
+     * units are always addressed directly.
+     *
+     * @param flag true, if unit 1 is the only unit on the bus
+     */
+    public void setBroadcastWrites(boolean flag) {
+        broadcastWrites = flag;
+    }
+
+    /**
+     * @return true, if values of unit 1 are written as broadcast
+     * @see #setBroadcastWrites(boolean)
+     */
+    public boolean isBroadcastWrites() {
+        return broadcastWrites;
+    }
+
+    /**
+     * Enables or disables the passive listener mode. If enabled, all telegrams
+     * seen on the bus (e.g. a wall remote polling the mainboard) are recorded
+     * and can be used instead of polling the value again.
+     *
+     * @param flag true, to record all values seen on the bus
+     */
+    public void setPassiveListening(boolean flag) {
+        passiveListening = flag;
+    }
+
+    /**
+     * Adds a listener that gets notified whenever the value of the given
+     * variable changes. Listeners are called by a dedicated thread, one after
+     * another.
+     *
+     * @param varname name of variable
+     * @param listener the listener
+     * @throws IllegalArgumentException if variable is unknown
+     */
+    public void addVariableListener(String varname, VariableListener listener) {
+        getUnit(1).addVariableListener(varname, listener);
+    }
+
+    /**
+     * @param index index of variable
+     * @param listener the listener
+     * @throws IllegalArgumentException if index is out of range
+     * @see #addVariableListener(java.lang.String, de.root1.helios.VariableListener)
+     */
+    public void addVariableListener(int index, VariableListener listener) {
+        getUnit(1).addVariableListener(index, listener);
+    }
+
+    public void removeVariableListener(String varname, VariableListener listener) {
+        getUnit(1).removeVariableListener(varname, listener);
+    }
+
+    /**
+     * Stores a new raw value in the register cache of a unit and notifies the
+     * listeners of all variables in this register whose value has changed.
+     *
+     * @param unit the unit
+     * @param varid register address
+     * @param rawvalue new raw value
+     */
+    private void updateRegister(HeliosUnit unit, byte varid, byte rawvalue) {
+        int previous = unit.registerImage.update(varid, rawvalue);
+        if (previous == (rawvalue & 0xFF)) {
+            return;
+        }
+        Variable[] inRegister = registerVariables[varid & 0xFF];
+        if (inRegister == null) {
+            return;
+        }
+        for (final Variable var : inRegister) {
+            final List<VariableListener> list = unit.variableListeners.get(var.index);
+            if (list.isEmpty()) {
+                continue;
+            }
+            final int value;
+            try {
+                value = var.toValue(rawvalue);
+                if (previous != -1 && var.toValue((byte) previous) == value) {
+                    // other bits of this register changed
+                    continue;
+                }
+            } catch (IllegalArgumentException ex) {
+                log.debug("Not notifying listeners of '{}': {}", var.name, ex.getMessage());
+                continue;
+            }
+            listenerExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (VariableListener listener : list) {
+                        try {
+                            listener.valueChanged(var, value);
+                        } catch (Exception ex) {
+                            log.error("Error notifying listener of '" + var.name + "'", ex);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the value of a variable of the 1st unit from the register cache.
+     * The cache holds
+     * the raw value per register (varid), so all variables located in the same
+     * register (e.g. bit-variables) are derived from the same raw byte. It is
+     * filled by every poll and write, and by the passive listener, if enabled.
+     *
+     * @param varname name of variable
+     * @param maxage maximum age of the cached register value in ms
+     * @return the value, or null if no recent value of the register is known
+     */
+    Integer getCachedValue(String varname, long maxage) {
+        Variable var = variables.get(varname);
+        if (var == null) {
+            return null;
+        }
+        return getCachedValue(getUnit(1), var, maxage);
+    }
+
+    /**
+     * @param index index of variable
+     * @param maxage maximum age of the cached register value in ms
+     * @return the value, or null if no recent value of the register is known
+     * @see #getCachedValue(java.lang.String, long)
+     */
+    Integer getCachedValue(int index, long maxage) {
+        return getCachedValue(getUnit(1), getVariable(index), maxage);
+    }
+
+    Integer getCachedValue(HeliosUnit unit, Variable var, long maxage) {
+        if (!var.read) {
+            return null;
+        }
+        int rawvalue = unit.registerImage.get(var.varid, maxage);
+        if (rawvalue == -1) {
+            return null;
+        }
+        try {
+            return var.toValue((byte) rawvalue);
+        } catch (IllegalArgumentException ex) {
+            log.debug("Ignoring cached value for '{}': {}", var.name, ex.getMessage());
+            return null;
+        }
     }
 
     /**
@@ -180,7 +565,16 @@ public class Helios {
         return telegram;
     }
 
-    private boolean waitForSilence() throws SocketException, IOException {
+    private boolean waitForSilence() {
+        long waitStart = System.nanoTime();
+        try {
+            return waitForSilenceSlot();
+        } finally {
+            metrics.recordSilenceWait((System.nanoTime() - waitStart) / 1000);
+        }
+    }
+
+    private boolean waitForSilenceSlot() {
 
         long time = System.currentTimeMillis();
         if (time - lastSend < SEND_DELAY) {
@@ -189,6 +583,9 @@ public class Helios {
                 log.debug("#### Sleep for SEND_DELAY: {} ms", sleep);
                 Thread.sleep(sleep);
             } catch (InterruptedException ex) {
+                // bus is stopped
+                Thread.currentThread().interrupt();
+                return false;
             }
         }
 
@@ -201,28 +598,35 @@ public class Helios {
          (1/9600baud * (1 Start bit + 8 Data bits + 1 Parity bit + 1 Stop bit) 
          => about 4ms
          Lets go with 7ms!  ;O)
+         The receive buffer knows when the last byte arrived, so we just 
+         have to wait until it is old enough.
          */
         boolean gotSlot = false;
-        int backupTimeout = socket.getSoTimeout();
         long end = System.currentTimeMillis() + 3000;
-        socket.setSoTimeout(7);
         while (end > System.currentTimeMillis() && !gotSlot) {
-            try {
-                inputStream.read();
-                gotSlot = false;
-            } catch (SocketTimeoutException ex) {
+            long silence = System.currentTimeMillis() - transport.getReceiveBuffer().getLastTime();
+            if (silence >= SILENCE_TIME) {
                 gotSlot = true;
+            } else {
+                try {
+                    Thread.sleep(SILENCE_TIME - silence);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
             }
         }
-        socket.setSoTimeout(backupTimeout);
         long stop = System.currentTimeMillis();
         log.debug("Waiting fo silence....*done* gotSlot={} waited: {} ms", gotSlot, (stop - start));
         return gotSlot;
     }
 
     private void sendTelegram(byte[] telegram) throws IOException {
-        outputStream.write(telegram);
-        outputStream.flush();
+        synchronized (receivedTelegrams) {
+            // responses to this telegram will be received after this mark
+            sendMark = receivedCount;
+        }
+        transport.send(telegram);
         lastSend = System.currentTimeMillis();
     }
 
@@ -230,187 +634,190 @@ public class Helios {
         log.debug("Reading telegram...");
         long start = System.currentTimeMillis();
         /*
-         sometimes a lot of garbage is received...so lets get a bit robust
-         and read a bit of this junk and see whether we are getting something
-         useful out of it!
-         How long does it take until something useful is received???
+         sometimes a lot of garbage is received...the bus reader skips the 
+         junk and hands over every valid telegram. How long does it take 
+         until something useful is received???
          */
         long timeout = System.currentTimeMillis() + 100;
 
-        byte[] telegram = new byte[]{0, 0, 0, 0, 0, 0};
-
-        while (isConnected && timeout > System.currentTimeMillis()) {
-            try {
-                int chr = inputStream.read();
-
-                log.trace("read: {}(dec)|{}", chr, String.format("%02x(hex)", chr));
-
-                // vorne ein byte rausschieben
-                System.arraycopy(telegram, 1, telegram, 0, telegram.length - 1);
-                // hinten ein byte anfügen
-                telegram[5] = (byte) chr;
-
-                log.trace("Telegram array now is   [{}]", telegramToString(telegram));
-                log.trace("Telegram array expected [{} {} {} {} {} {}]", new Object[]{
-                    "01",
-                    String.format("%02x", sender),
-                    String.format("%02x", receiver),
-                    String.format("%02x", datapoint),
-                    "??",
-                    String.format("%02x", calculateCRC(telegram))});
-
-                // Telegrams always start with a 0x01, is the CRC valid?, ...
-                if (telegram[0] == 0x01
-                        && telegram[1] == sender
-                        && telegram[2] == receiver
-                        && telegram[3] == datapoint
-                        && telegram[5] == calculateCRC(telegram)) {
-                    long end = System.currentTimeMillis();
-                    log.trace("****** Time taken to read: {} ms", (end - start));
-                    log.trace("Telegram received [{}]", telegramToString(telegram));
-                    log.debug("Reading telegram...*done*");
-                    return telegram[4];
+        synchronized (receivedTelegrams) {
+            long checked = sendMark;
+            while (isConnected) {
+                // check all telegrams received since our request has been sent
+                for (; checked < receivedCount; checked++) {
+                    if (receivedCount - checked > receivedTelegrams.length) {
+                        // already overwritten by newer telegrams
+                        continue;
+                    }
+                    byte[] telegram = receivedTelegrams[(int) (checked % receivedTelegrams.length)];
+                    if (telegram[1] == sender
+                            && telegram[2] == receiver
+                            && telegram[3] == datapoint) {
+                        if (log.isTraceEnabled()) {
+                            log.trace("****** Time taken to read: {} ms", (System.currentTimeMillis() - start));
+                            log.trace("Telegram received [{}]", telegramToString(telegram));
+                        }
+                        log.debug("Reading telegram...*done*");
+                        return telegram[4];
+                    }
+                }
+                long remaining = timeout - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                try {
+                    receivedTelegrams.wait(remaining);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new TelegramException("Interrupted while reading telegram");
                 }
-            } catch (SocketTimeoutException ex) {
-                throw new TelegramException("Socket-Timeout while reading telegram", ex);
             }
         }
 
+        if (!isConnected) {
+            throw new TelegramException("Connection lost while reading telegram");
+        }
         throw new TelegramException("Protocol-Timeout while reading telegram");
     }
 
-    private byte calculateCRC(byte[] telegram) {
-        int sum = 0;
-        // sum bytes 0..4, exclude byte #5 which is crc
-        for (int i = 0; i < telegram.length - 1; i++) {
-            sum += telegram[i];
+    /**
+     * Called by the bus reader for every valid telegram seen on the bus
+     *
+     * @param telegram the received telegram
+     */
+    private void telegramReceived(byte[] telegram) {
+        synchronized (receivedTelegrams) {
+            receivedTelegrams[(int) (receivedCount % receivedTelegrams.length)] = telegram;
+            receivedCount++;
+            receivedTelegrams.notifyAll();
+        }
+
+        // function != 0 --> response to a poll request or write: contains register value
+        if (passiveListening && telegram[3] != 0) {
+            for (HeliosUnit unit : activeUnits) {
+                if (isUnitTraffic(unit, telegram)) {
+                    log.trace("Overheard value for {} of {}: {}", new Object[]{String.format("%02x", telegram[3]), unit, String.format("%02x", telegram[4])});
+                    updateRegister(unit, telegram[3], telegram[4]);
+                }
+            }
         }
-        return (byte) (sum % 256);
     }
 
-    private String telegramToString(byte[] telegram) {
-        return String.format("%02x %02x %02x %02x %02x %02x", telegram[0], telegram[1], telegram[2], telegram[3], telegram[4], telegram[5]);
+    /**
+     * Checks whether a telegram is sent by or addressed to the mainboard of
+     * the given unit. Broadcasts are addressed to all units.
+     */
+    private boolean isUnitTraffic(HeliosUnit unit, byte[] telegram) {
+        boolean broadcast = false;
+        for (int i = 1; i <= 2; i++) {
+            byte address = telegram[i];
+            if (address == unit.address) {
+                return true;
+            } else if (address > CONST_BUS_ALL_MAINBOARDS && address <= CONST_BUS_ALL_MAINBOARDS + 15) {
+                // another unit
+                return false;
+            }
+            broadcast |= address == CONST_BUS_ALL_MAINBOARDS || address == CONST_BUS_ALL_REMOTES;
+        }
+        return broadcast;
+    }
+
+    /**
+     * Stops the bus reader and waits until it has finished
+     */
+    private void stopBusReader() {
+        BusReader reader = busReader;
+        if (reader == null || reader == Thread.currentThread()) {
+            return;
+        }
+        reader.stopped = true;
+        reader.interrupt();
+        try {
+            reader.join(READER_STOP_TIMEOUT);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (reader.isAlive()) {
+            log.warn("Bus reader did not stop within {}ms", READER_STOP_TIMEOUT);
+        }
+        busReader = null;
     }
 
-    private int convertFromRawValue(String varname, byte rawvalue) {
-        int value;
-        Variable vardef = variables.get(varname);
+    /**
+     * Reads everything that is sent on the bus and hands over every valid
+     * telegram
+     */
+    private class BusReader extends Thread {
 
-        switch (vardef.type) {
-            case temperature:
-                value = CONST_TEMPERATURE[rawvalue & 0xFF];
-                break;
-            case fanspeed:
-                switch (rawvalue) {
-                    case 0x01:
-                        value = 1;
-                        break;
-                    case 0x03:
-                        value = 2;
-                        break;
-                    case 0x07:
-                        value = 3;
-                        break;
-                    case 0x0F:
-                        value = 4;
-                        break;
-                    case 0x1F:
-                        value = 5;
-                        break;
-                    case 0x3F:
-                        value = 6;
-                        break;
-                    case 0x7F:
-                        value = 7;
-                        break;
-                    case (byte) 0xFF:
-                        value = 8;
-                        break;
-                    default:
-                        throw new IllegalArgumentException("raw value '" + rawvalue + "(dec)'/'" + String.format("%02x", rawvalue) + "(hex)' not known for fanspeed.");
+        private final Transport transport;
+        // set when this reader is stopped intentionally
+        volatile boolean stopped;
 
-                }
-                break;
-            case bit:
-                value = rawvalue >> vardef.bitposition & 0x01;
-                break;
-            case dec:
-            case percent:
-                value = rawvalue;
-                break;
-            default:
-                // should not happen, as we use reliable enums
-                throw new IllegalArgumentException("Unsupported variable type: " + vardef.type + ". Pls. contact developer ...");
+        BusReader(Transport transport) {
+            super("HeliosBusReader");
+            setDaemon(true);
+            this.transport = transport;
         }
 
-        return value;
+        @Override
+        public void run() {
+            ReceiveBuffer buffer = transport.getReceiveBuffer();
+            // position of next byte to check
+            long position = buffer.getCount();
+            try {
+                while (!stopped) {
+                    if (transport.receive(1000) == 0) {
+                        continue;
+                    }
+                    position = frame(buffer, position);
+                }
+            } catch (IOException | ClosedSelectorException ex) {
+                if (!stopped) {
+                    log.warn("Error reading from bus", ex);
+                    health.connectionLost();
+                }
+            }
+            if (!stopped) {
+                // connection lost, not yet replaced by a new one
+                isConnected = false;
+            }
+            synchronized (receivedTelegrams) {
+                receivedTelegrams.notifyAll();
+            }
+        }
     }
 
     /**
+     * Searches the received bytes for telegrams and passes them to
+     * {@link #telegramReceived(byte[])}
      *
-     * @param varname
-     * @param value
-     * @param prevvalue required for bit-variables, otherwise ignored
-     * @return
-     * @throws IllegalArgumentException
+     * @param buffer the receive buffer
+     * @param position position of next byte to check
+     * @return position of next byte to check, after all received bytes have
+     * been checked
      */
-    private int convertFromValue(String varname, int value, byte prevvalue) throws IllegalArgumentException {
-        int rawvalue;
-        Variable vardef = variables.get(varname);
-        switch (vardef.type) {
-            case temperature:
-                rawvalue = Arrays.binarySearch(CONST_TEMPERATURE, value);
-                break;
-            case fanspeed:
-                switch (value) {
-                    case 1:
-                        rawvalue = 0x01;
-                        break;
-                    case 2:
-                        rawvalue = 0x03;
-                        break;
-                    case 3:
-                        rawvalue = 0x07;
-                        break;
-                    case 4:
-                        rawvalue = 0x0F;
-                        break;
-                    case 5:
-                        rawvalue = 0x1F;
-                        break;
-                    case 6:
-                        rawvalue = 0x3F;
-                        break;
-                    case 7:
-                        rawvalue = 0x7F;
-                        break;
-                    case 8:
-                        rawvalue = 0xFF;
-                        break;
-                    default:
-                        throw new IllegalArgumentException("Illegal fanspeed detected: " + value + ". Must be in range [1..8].");
-                }
-                break;
-            case bit:
-                switch (value) {
-                    case 1: // On, True, 1
-                        rawvalue = prevvalue | (1 << vardef.bitposition);
-                        break;
-                    default: // everything else is mapped to OFF/False/0
-                        rawvalue = prevvalue & ~(1 << vardef.bitposition);
-                        break;
-                }
-                break;
-            case dec:
-            case percent:
-                rawvalue = value;
-                break;
-            default:
-                // should not happen, as we use reliable enums
-                throw new IllegalArgumentException("Unsupported variable type: " + vardef.type + ". Pls. contact developer ...");
+    long frame(ReceiveBuffer buffer, long position) {
+        long count = buffer.getCount();
+        if (position < count - buffer.getCapacity()) {
+            log.debug("Receive buffer overrun, {} bytes lost", count - buffer.getCapacity() - position);
+            position = count - buffer.getCapacity();
+            decoder.reset();
+        }
+        decoder.decode(buffer, position, count);
+        return count;
+    }
 
+    byte calculateCRC(byte[] telegram) {
+        int sum = 0;
+        // sum bytes 0..4, exclude byte #5 which is crc
+        for (int i = 0; i < telegram.length - 1; i++) {
+            sum += telegram[i];
         }
-        return rawvalue;
+        return (byte) (sum % 256);
+    }
+
+    private String telegramToString(byte[] telegram) {
+        return String.format("%02x %02x %02x %02x %02x %02x", telegram[0], telegram[1], telegram[2], telegram[3], telegram[4], telegram[5]);
     }
 
     /**
@@ -423,61 +830,211 @@ public class Helios {
      * @throws UnsupportedOperationException in case of unsupported operation
      * read/write
      */
-    public synchronized void writeValue(String varname, int value) throws IOException, TelegramException, IllegalArgumentException, UnsupportedOperationException {
-        log.debug("Writing value {} to '{}'",value, varname);
-        Variable var = variables.get(varname);
+    public void writeValue(String varname, int value) throws IOException, TelegramException, IllegalArgumentException, UnsupportedOperationException {
+        final Variable var = variables.get(varname);
         
         if (var == null) {
             throw new IllegalArgumentException("Variable '" + varname + "' unknown.");
         }
+        writeValue(getUnit(1), var, value);
+    }
+
+    /**
+     * @param index index of the variable to write to
+     * @param value the value to write
+     * @throws IOException in case of problems with stream communication
+     * @throws TelegramException in case of read/write problems with telegram
+     * @throws IllegalArgumentException in case of illegal argument
+     * @throws UnsupportedOperationException in case of unsupported operation
+     * @see #writeValue(java.lang.String, int)
+     */
+    public void writeValue(int index, int value) throws IOException, TelegramException, IllegalArgumentException, UnsupportedOperationException {
+        writeValue(getUnit(1), getVariable(index), value);
+    }
+
+    private void writeValue(HeliosUnit unit, Variable var, int value) throws IOException, TelegramException, IllegalArgumentException, UnsupportedOperationException {
+        scheduler.await(writeAsync(unit, var, value));
+    }
+
+    /**
+     * Waits for the result of an asynchronous read or write
+     */
+    <T> T await(HeliosFuture<T> future) throws IOException, TelegramException {
+        return scheduler.await(future);
+    }
+
+    /**
+     * Writes a value without waiting for the bus
+     *
+     * @param varname the variable to write to
+     * @param value the value to write
+     * @return completes when the value has been written
+     * @throws IllegalArgumentException if variable is unknown
+     * @throws UnsupportedOperationException if variable may not be written
+     */
+    public HeliosFuture<Void> writeAsync(String varname, int value) throws IllegalArgumentException, UnsupportedOperationException {
+        return writeAsync(getUnit(1), lookupVariable(varname), value);
+    }
+
+    /**
+     * @param index index of the variable to write to
+     * @param value the value to write
+     * @return completes when the value has been written
+     * @throws IllegalArgumentException if index is out of range
+     * @throws UnsupportedOperationException if variable may not be written
+     * @see #writeAsync(java.lang.String, int)
+     */
+    public HeliosFuture<Void> writeAsync(int index, int value) throws IllegalArgumentException, UnsupportedOperationException {
+        return writeAsync(getUnit(1), getVariable(index), value);
+    }
+
+    HeliosFuture<Void> writeAsync(final HeliosUnit unit, final Variable var, final int value) {
+        log.debug("Writing value {} to '{}' of {}", new Object[]{value, var.name, unit});
 
         if (!var.write) {
-            throw new UnsupportedOperationException("Variable '" + varname + "' may not be written!");
+            throw new UnsupportedOperationException("Variable '" + var.name + "' may not be written!");
         }
-        
-        
-        if (restoreFanspeed && varname.equals("boost_on")) {
-            
-            final int lastSpeed = readValue("fanspeed");
-            
-            Thread restoreThread = new Thread("RestoreFanspeed"){
+
+        long settling = unit.settleUntil - System.currentTimeMillis();
+        if (settling > 0 && isPowerCommand(var)) {
+            // other writes are queued until the unit has settled
+            HeliosPromise<Void> rejected = new HeliosPromise<>();
+            rejected.fail(new TelegramException("Power state change in progress, try again in " + settling + "ms"));
+            return rejected;
+        }
+
+        if (restoreFanspeed && var.name.equals("boost_on")) {
+            // remember the fanspeed before switching boost on
+            final HeliosPromise<Void> promise = new HeliosPromise<>();
+            readAsync(unit, variables.get("fanspeed")).addCallback(new HeliosCallback<Integer>() {
 
                 @Override
-                public void run() {
-                    try {
-                        Thread.sleep(5000);
-                        int boostOn = readValue("boost_status");
+                public void onSuccess(final Integer lastSpeed) {
+                    submitWrite(unit, var, value).addCallback(new HeliosCallback<Void>() {
+
+                        @Override
+                        public void onSuccess(Void result) {
+                            promise.complete(null);
+                            scheduleRestoreFanspeed(unit, lastSpeed);
+                        }
+
+                        @Override
+                        public void onFailure(Exception error) {
+                            promise.fail(error);
+                        }
+                    });
+                }
+
+                @Override
+                public void onFailure(Exception error) {
+                    promise.fail(error);
+                }
+            });
+            return promise;
+        }
+        return submitWrite(unit, var, value);
+    }
+
+    private HeliosFuture<Void> submitWrite(final HeliosUnit unit, final Variable var, final int value) {
+        return scheduler.submit(new BusScheduler.Request<Void>(unit.getNumber(), BusScheduler.Priority.WRITE, null, 1) {
+
+            @Override
+            Void execute() throws Exception {
+                long start = System.nanoTime();
+                write(unit, var, value);
+                metrics.recordWrite(var, (System.nanoTime() - start) / 1000);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Checks whether boost has been switched on, and restores the fanspeed
+     * after boost has finished.
+     */
+    private void scheduleRestoreFanspeed(final HeliosUnit unit, final int lastSpeed) {
+        timer.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                readAsync(unit, variables.get("boost_status")).addCallback(new HeliosCallback<Integer>() {
+
+                    @Override
+                    public void onSuccess(Integer boostOn) {
                         if (boostOn == 1) {
-                            
-                            int remaining = readValue("boost_remaining");
-                            if (remaining>0) {
-                                while (remaining>0) {
-                                    log.info("Will restore fanspeed in {} mins to {}", remaining, lastSpeed);
-                                    Thread.sleep(65*1000); // sleep a bit more than 1min
-                                    remaining = readValue("boost_remaining");    
-                                }
-                                writeValue("fanspeed", lastSpeed);
-                            } else {
-                                log.warn("Seems that boost was on, but remaining time is already (or still?) 0mins?!");
-                            }
-                                
-                            
+                            checkBoostRemaining(unit, lastSpeed, true);
                         } else {
                             log.warn("Seems that setting boost_on=1 did not succeed. boost_status is still at 0.");
                         }
-                        
-                    } catch (InterruptedException ex) {
-                        ex.printStackTrace();
-                    } catch (IOException ex) {
-                        ex.printStackTrace();
-                    } catch (TelegramException ex) {
-                        ex.printStackTrace();
-                    } 
+                    }
+
+                    @Override
+                    public void onFailure(Exception error) {
+                        log.error("Error reading boost_status, will not restore fanspeed", error);
+                    }
+                });
+            }
+        }, BOOST_CHECK_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    private void checkBoostRemaining(final HeliosUnit unit, final int lastSpeed, final boolean first) {
+        readAsync(unit, variables.get("boost_remaining")).addCallback(new HeliosCallback<Integer>() {
+
+            @Override
+            public void onSuccess(Integer remaining) {
+                if (remaining > 0) {
+                    log.info("Will restore fanspeed in {} mins to {}", remaining, lastSpeed);
+                    timer.schedule(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            checkBoostRemaining(unit, lastSpeed, false);
+                        }
+                    }, BOOST_REMAINING_INTERVAL, TimeUnit.MILLISECONDS);
+                } else if (first) {
+                    log.warn("Seems that boost was on, but remaining time is already (or still?) 0mins?!");
+                } else {
+                    writeAsync(unit, variables.get("fanspeed"), lastSpeed).addCallback(new HeliosCallback<Void>() {
+
+                        @Override
+                        public void onSuccess(Void result) {
+                            log.info("Restored fanspeed to {}", lastSpeed);
+                        }
+
+                        @Override
+                        public void onFailure(Exception error) {
+                            log.error("Error restoring fanspeed", error);
+                        }
+                    });
                 }
-            };
-            restoreThread.start();
-        }
+            }
 
+            @Override
+            public void onFailure(Exception error) {
+                log.error("Error reading boost_remaining, will not restore fanspeed", error);
+            }
+        });
+    }
+
+    /**
+     * @return true, if the 1st ventilation unit is busy after a power state
+     * change. Reads are answered from the register cache, if possible, writes
+     * are queued until it has settled.
+     * @see HeliosUnit#isSettling()
+     */
+    public boolean isSettling() {
+        return getUnit(1).isSettling();
+    }
+
+    private boolean isPowerCommand(Variable var) {
+        return var.varid == (byte) 0xA3 && var.bitposition == 0;
+    }
+
+    /**
+     * Writes the value to the bus. Must only be called by the bus scheduler.
+     */
+    private void write(HeliosUnit unit, Variable var, int value) throws IOException, TelegramException {
+        String varname = var.name;
         // will contain our value converted to raw
         int rawvalue;
 
@@ -489,54 +1046,67 @@ public class Helios {
 
             waitForSilence();
             // Send poll request
-            byte[] telegram = createTelegram(CONST_BUS_ME, CONST_BUS_MAINBOARD1, (byte) 0, var.varid);
+            byte[] telegram = createTelegram(CONST_BUS_ME, unit.address, (byte) 0, var.varid);
             sendTelegram(telegram);
             // Read response
-            byte currentval = readTelegram(CONST_BUS_MAINBOARD1, CONST_BUS_ME, var.varid);
+            byte currentval = readTelegram(unit.address, CONST_BUS_ME, var.varid);
+            updateRegister(unit, var.varid, currentval);
 
-            rawvalue = convertFromValue(varname, value, /* previous bits */ currentval);
+            rawvalue = var.toRaw(value, /* previous bits */ currentval);
         } else {
             // for all other types, the previous value is not relevant, 
             // we can directly convert our value to raw value for sending
-            rawvalue = convertFromValue(varname, value, /* value will be ignored, as var is not a bit-type var */ (byte) 0);
+            rawvalue = var.toRaw(value, /* value will be ignored, as var is not a bit-type var */ (byte) 0);
         }
 
+        // the remote control with the same number as the unit
+        byte remote = (byte) (CONST_BUS_REMOTE1 - 1 + unit.getNumber());
+        // broadcasts would also change the other units
+        boolean broadcast = broadcastWrites && unit.getNumber() == 1;
+
         // send the new value    
         if (waitForSilence()) {
 
-            // Broadcasting value to all remote control boards
-            byte[] telegram = createTelegram(CONST_BUS_ME, CONST_BUS_ALL_REMOTES, var.varid, (byte) rawvalue);
-            sendTelegram(telegram);
+            byte[] telegram;
+            if (broadcast) {
+                // Broadcasting value to all remote control boards
+                telegram = createTelegram(CONST_BUS_ME, CONST_BUS_ALL_REMOTES, var.varid, (byte) rawvalue);
+                sendTelegram(telegram);
 
-            // Broadcasting value to all mainboards
-            telegram = createTelegram(CONST_BUS_ME, CONST_BUS_ALL_MAINBOARDS, var.varid, (byte) rawvalue);
-            sendTelegram(telegram);
+                // Broadcasting value to all mainboards
+                telegram = createTelegram(CONST_BUS_ME, CONST_BUS_ALL_MAINBOARDS, var.varid, (byte) rawvalue);
+                sendTelegram(telegram);
+            } else {
+                telegram = createTelegram(CONST_BUS_ME, remote, var.varid, (byte) rawvalue);
+                sendTelegram(telegram);
+            }
 
-            // Writing value to 1st mainboard
-            telegram = createTelegram(CONST_BUS_ME, CONST_BUS_MAINBOARD1, var.varid, (byte) rawvalue);
+            // Writing value to the mainboard of the unit
+            telegram = createTelegram(CONST_BUS_ME, unit.address, var.varid, (byte) rawvalue);
             sendTelegram(telegram);
 
             // Send checksum a second time
             sendTelegram(new byte[]{telegram[5]});
+            updateRegister(unit, var.varid, (byte) rawvalue);
 
             // #### Special treatment to switch the remote controls on again:
-            if (var.varid == (byte) 0xA3 && var.bitposition == 0) {
+            if (isPowerCommand(var)) {
 
                 log.debug("On/Off command - special treatment for the remote controls");
-                telegram = createTelegram(CONST_BUS_ME, CONST_BUS_ALL_REMOTES, var.varid, (byte) rawvalue);
-                sendTelegram(telegram);
+                if (broadcast) {
+                    telegram = createTelegram(CONST_BUS_ME, CONST_BUS_ALL_REMOTES, var.varid, (byte) rawvalue);
+                    sendTelegram(telegram);
+                }
 
-                telegram = createTelegram(CONST_BUS_ME, CONST_BUS_REMOTE1, var.varid, (byte) rawvalue);
+                telegram = createTelegram(CONST_BUS_ME, remote, var.varid, (byte) rawvalue);
                 sendTelegram(telegram);
 
                 sendTelegram(new byte[]{telegram[5]});
-                
-                // power-commands need a bit of sleep before next commands can be processed.
-                try {
-                    log.info("Power State Change. Need to sleep.");
-                    Thread.sleep(15000);
-                } catch (InterruptedException ex) {
-                }
+            
+                // power-commands need a bit of time before next commands can be processed.
+                log.info("Power State Change of {}. Holding its requests for {}ms.", unit, POWER_SETTLE_TIME);
+                unit.settleUntil = System.currentTimeMillis() + POWER_SETTLE_TIME;
+                scheduler.holdUntil(unit.getNumber(), unit.settleUntil);
 
             }
             // #####
@@ -546,7 +1116,7 @@ public class Helios {
         log.debug("Writing *done*");
     }
 
-    public synchronized int readValue(String varname) throws IOException, TelegramException {
+    public int readValue(String varname) throws IOException, TelegramException {
         Variable var = variables.get(varname);
 
         if (var == null) {
@@ -557,83 +1127,254 @@ public class Helios {
             System.err.println("Variable '" + varname + "' may not be read!");
             return -1;
         }
+        return readValue(getUnit(1), var);
+    }
 
-        log.debug("Helios: Reading value: {}", varname);
-//
-        int count = 0;
-        int maxCount = 10;
-        boolean problemReading = false;
-        while (count < maxCount) {
-            log.debug("Try to read, attempt #{}", count);
-            try {
-                if (waitForSilence()) {
-                    // Send poll request
-                    byte[] telegram = createTelegram(CONST_BUS_ME, CONST_BUS_MAINBOARD1, (byte) 0, var.varid);
-                    sendTelegram(telegram);
-                    
-                    // Read response, reading can cause expception!
-                    byte rawvalue = readTelegram(CONST_BUS_MAINBOARD1, CONST_BUS_ME, var.varid);
-                    if (problemReading) {
-                        log.debug("Now reading variable '{}' was successful", varname);
-                    }
-                    int value = convertFromRawValue(varname, rawvalue);
-
-                    
-                    log.debug(String.format("Value for %s (%02x) received: %02x|%s|%d --> converted = %d",
-                            varname,
-                            var.varid,
-                            rawvalue,
-                            String.format("%8s", Integer.toBinaryString(rawvalue & 0xFF)).replace(" ", "0"),
-                            rawvalue,
-                            value
-                    ));
-                    return value;
+    /**
+     * @param index index of the variable to read
+     * @return the value
+     * @throws IOException in case of problems with stream communication
+     * @throws TelegramException in case of read/write problems with telegram
+     * @throws IllegalArgumentException if index is out of range
+     * @throws UnsupportedOperationException if variable may not be read
+     */
+    public int readValue(int index) throws IOException, TelegramException {
+        Variable var = getVariable(index);
+        if (!var.read) {
+            throw new UnsupportedOperationException("Variable '" + var.name + "' may not be read!");
+        }
+        return readValue(getUnit(1), var);
+    }
 
-                } else {
-                    throw new TelegramException("Reading value from ventilation system failed. No free slot to send poll request available.");
+    private int readValue(HeliosUnit unit, Variable var) throws IOException, TelegramException {
+        return scheduler.await(readAsync(unit, var));
+    }
+
+    /**
+     * Reads a value without waiting for the bus
+     *
+     * @param varname the variable to read
+     * @return completes with the value
+     * @throws IllegalArgumentException if variable is unknown
+     * @throws UnsupportedOperationException if variable may not be read
+     */
+    public HeliosFuture<Integer> readAsync(String varname) throws IllegalArgumentException, UnsupportedOperationException {
+        return readAsync(getUnit(1), lookupVariable(varname));
+    }
+
+    /**
+     * @param index index of the variable to read
+     * @return completes with the value
+     * @throws IllegalArgumentException if index is out of range
+     * @throws UnsupportedOperationException if variable may not be read
+     * @see #readAsync(java.lang.String)
+     */
+    public HeliosFuture<Integer> readAsync(int index) throws IllegalArgumentException, UnsupportedOperationException {
+        return readAsync(getUnit(1), getVariable(index));
+    }
+
+    HeliosFuture<Integer> readAsync(final HeliosUnit unit, final Variable var) {
+        if (!var.read) {
+            throw new UnsupportedOperationException("Variable '" + var.name + "' may not be read!");
+        }
+        log.debug("Helios: Reading value: {} of {}", var.name, unit);
+        final HeliosPromise<Integer> promise = new HeliosPromise<>();
+        if (unit.isSettling()) {
+            // the unit is on hold, don't let the caller wait for it
+            int rawvalue = unit.registerImage.get(var.varid, Long.MAX_VALUE);
+            if (rawvalue != -1) {
+                try {
+                    int value = var.toValue((byte) rawvalue);
+                    log.debug("Power state change in progress, '{}' taken from register cache", var.name);
+                    promise.complete(value);
+                    return promise;
+                } catch (IllegalArgumentException ex) {
+                    // read from bus when settled
                 }
+            }
+        }
+        scheduler.submit(new RegisterRead(unit, var, BusScheduler.Priority.READ)).addCallback(new HeliosCallback<Byte>() {
+
+            @Override
+            public void onSuccess(Byte rawvalue) {
+                int value = var.toValue(rawvalue);
+                logValueReceived(var, rawvalue, value);
+                promise.complete(value);
+            }
+
+            @Override
+            public void onFailure(Exception error) {
+                promise.fail(error);
+            }
+        });
+        return promise;
+    }
+
+    /**
+     * Polls a register. Concurrent reads of the same register are merged by
+     * the bus scheduler, failed attempts are retried.
+     */
+    private class RegisterRead extends BusScheduler.Request<Byte> {
+
+        private final HeliosUnit unit;
+        private final Variable var;
+
+        RegisterRead(HeliosUnit unit, Variable var, BusScheduler.Priority priority) {
+            super(unit.getNumber(), priority, "read." + unit.getNumber() + "." + (var.varid & 0xFF), MAX_READ_ATTEMPTS);
+            this.unit = unit;
+            this.var = var;
+        }
+
+        @Override
+        Byte execute() throws Exception {
+            log.debug("Try to read '{}', attempt #{}", var.name, getAttempt() - 1);
+            try {
+                byte rawvalue = poll(unit, var);
+                metrics.recordReadAttempts(getAttempt());
+                return rawvalue;
             } catch (Exception ex) {
-                
-                log.debug("Did not get answer in time for '"+varname+"' in attempt #"+count+"... Wait and go for next attempt. ExceptionMessage={}", ex.getMessage());
-                problemReading = true;
-                count++;
-                try {
-                    Thread.sleep(RETRY_DELAY);
-                } catch (InterruptedException ex1) {
+                metrics.recordPollFailure(var, getAttempt());
+                throw ex;
+            }
+        }
+
+        @Override
+        Exception failure(Exception last) {
+            metrics.recordReadAttempts(getAttempt());
+            return new TelegramException("Error while reading '" + var.name + "' of " + unit + ". Max attempts " + MAX_READ_ATTEMPTS + " reached.", last);
+        }
+    }
+
+    /**
+     * Polls the register of the given variable once. Must only be called by
+     * the bus scheduler.
+     *
+     * @param unit the unit to poll
+     * @param var the variable to read
+     * @return the raw value of the register
+     * @throws IOException in case of problems with stream communication
+     * @throws TelegramException if no valid answer has been received
+     */
+    private byte poll(HeliosUnit unit, Variable var) throws IOException, TelegramException {
+        // right after the mainboard answered us, the bus is still ours
+        if (System.currentTimeMillis() - lastResponse >= SILENCE_TIME && !waitForSilence()) {
+            throw new TelegramException("Reading value from ventilation system failed. No free slot to send poll request available.");
+        }
+        // Send poll request
+        byte[] telegram = createTelegram(CONST_BUS_ME, unit.address, (byte) 0, var.varid);
+        long sendTime = System.nanoTime();
+        sendTelegram(telegram);
+
+        // Read response, reading can cause expception!
+        byte rawvalue = readTelegram(unit.address, CONST_BUS_ME, var.varid);
+        lastResponse = System.currentTimeMillis();
+        metrics.recordPoll(var, (System.nanoTime() - sendTime) / 1000);
+
+        // garbage values are treated like a failed read
+        var.toValue(rawvalue);
+        updateRegister(unit, var.varid, rawvalue);
+        return rawvalue;
+    }
+
+    /**
+     * Reads several variables of the 1st unit at once with background
+     * priority. Each register
+     * is polled only once, even if several variables are located in it (e.g.
+     * bit-variables), and the poll requests are sent one after another without
+     * waiting for a new free slot on the bus for each of them.
+     *
+     * @param varnames the variables to read
+     * @return map with variable name and value for all variables that could be
+     * read. Unknown variables and variables that could not be read are missing.
+     * @throws IOException in case of problems with stream communication
+     */
+    public Map<String, Integer> readValues(Collection<String> varnames) throws IOException {
+        return readValues(getUnit(1), varnames);
+    }
+
+    Map<String, Integer> readValues(HeliosUnit unit, Collection<String> varnames) throws IOException {
+        // group variables by register
+        Map<Byte, List<Variable>> registers = new LinkedHashMap<>();
+        for (String varname : varnames) {
+            Variable var = variables.get(varname);
+            if (var == null) {
+                log.warn("Variable '{}' unknown.", varname);
+                continue;
+            }
+            if (!var.read) {
+                log.warn("Variable '{}' may not be read!", varname);
+                continue;
+            }
+            List<Variable> list = registers.get(var.varid);
+            if (list == null) {
+                list = new ArrayList<>();
+                registers.put(var.varid, list);
+            }
+            list.add(var);
+        }
+
+        log.debug("Helios: Reading {} variables from {} registers of {}", new Object[]{varnames.size(), registers.size(), unit});
+        Map<Byte, BusScheduler.Request<Byte>> requests = new LinkedHashMap<>();
+        for (Map.Entry<Byte, List<Variable>> entry : registers.entrySet()) {
+            requests.put(entry.getKey(), scheduler.submit(new RegisterRead(unit, entry.getValue().get(0), BusScheduler.Priority.BACKGROUND)));
+        }
+
+        Map<String, Integer> values = new HashMap<>();
+        for (Map.Entry<Byte, BusScheduler.Request<Byte>> entry : requests.entrySet()) {
+            try {
+                byte rawvalue = entry.getValue().get();
+                for (Variable var : registers.get(entry.getKey())) {
+                    int value = var.toValue(rawvalue);
+                    logValueReceived(var, rawvalue, value);
+                    values.put(var.name, value);
                 }
+            } catch (ExecutionException | IllegalArgumentException ex) {
+                log.warn("Reading register {} failed: {}", String.format("%02x", entry.getKey()), ex.getMessage());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
             }
-        } // end of while
-        reconnect();
-        throw new TelegramException("Error while reading '"+varname+"'. Max attempts "+maxCount+" reached.");
+        }
+        return values;
+    }
+
+    private void logValueReceived(Variable var, byte rawvalue, int value) {
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("Value for %s (%02x) received: %02x|%s|%d --> converted = %d",
+                    var.name,
+                    var.varid,
+                    rawvalue,
+                    String.format("%8s", Integer.toBinaryString(rawvalue & 0xFF)).replace(" ", "0"),
+                    rawvalue,
+                    value
+            ));
+        }
     }
 
     protected void dump() throws IOException, TelegramException {
-        for (Map.Entry<String, Variable> entrySet : variables.entrySet()) {
-            String key = entrySet.getKey();
-            int readValue = readValue(key);
-            System.out.println(key + " = " + readValue);
+        for (Map.Entry<String, Integer> entrySet : readValues(variables.keySet()).entrySet()) {
+            System.out.println(entrySet.getKey() + " = " + entrySet.getValue());
         }
     }
 
-    private void reconnect() {
+    /**
+     * Closes and re-opens the connection. Called by the bus health's
+     * reconnect thread.
+     */
+    void reconnect() throws IOException {
         log.debug("Reconnect ...");
+        metrics.recordReconnect();
         reconnect = true;
         try {
-            disconnect();
-        } catch (IOException ex) {
-            ex.printStackTrace();
-        }
-        try {
-            Thread.sleep(500);
-        } catch (InterruptedException ex) {
-            ex.printStackTrace();
-        }
-        try {
+            try {
+                disconnect();
+            } catch (IOException ex) {
+                log.debug("Error while disconnecting: {}", ex.getMessage());
+            }
             connect();
-        } catch (IOException ex) {
-            ex.printStackTrace();
+        } finally {
+            reconnect = false;
         }
-        reconnect = false;
         log.debug("Reconnect ...*done*");
     }
     
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import java.util.concurrent.Future;
+
+/**
+ * Result of an asynchronous read or write. Callbacks are called one after
+ * another by the thread that also notifies variable listeners, in the order
+ * the results came from the bus, never by the bus thread. They should return
+ * quickly and must not wait for other results of the bus.
+ *
+ * @param <T> type of result
+ * @author achristian
+ */
+public interface HeliosFuture<T> extends Future<T> {
+
+    /**
+     * Adds a callback that is called as soon as the operation completes, or
+     * right away if it has already completed.
+     *
+     * @param callback the callback
+     */
+    void addCallback(HeliosCallback<? super T> callback);
+
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import de.root1.slicknx.Knx;
+import de.root1.slicknx.KnxException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs several installations in one JVM, one per config file in a directory.
+ * Installations with the same gateway (host and port, or serial device) share
+ * one bus, so there is only one bus master per gateway. All of them share one
+ * KNX connection and the thread pools. The name of an installation is the name of
+ * its config file without <code>.properties</code>. Installations can be
+ * started and stopped one by one, also via JMX
+ * (<code>de.root1.helios:type=Host</code>).
+ *
+ * @author achristian
+ */
+public class HeliosKwlHost implements HeliosKwlHostMBean {
+
+    private static final Logger log = LoggerFactory.getLogger(HeliosKwlHost.class);
+
+    private final Knx knx;
+    private final Map<String, HeliosKwlRemote> installations = new TreeMap<>();
+    // buses by gateway
+    private final Map<String, Helios> engines = new HashMap<>();
+
+    /**
+     * Loads all installations, without starting them
+     *
+     * @param configdir directory with one config file per installation
+     * @throws IOException if a config file cannot be read
+     * @throws KnxException if KNX is not available
+     */
+    public HeliosKwlHost(File configdir) throws IOException, KnxException {
+        File[] configfiles = configdir.listFiles(new FileFilter() {
+
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(".properties");
+            }
+        });
+        if (configfiles == null || configfiles.length == 0) {
+            throw new FileNotFoundException("No config files (*.properties) found in " + configdir.getAbsolutePath());
+        }
+        Arrays.sort(configfiles);
+
+        // the 1st installation with an individual address decides about it
+        String individualAddress = null;
+        for (File configfile : configfiles) {
+            Properties p = new Properties();
+            try (FileReader reader = new FileReader(configfile)) {
+                p.load(reader);
+            }
+            individualAddress = p.getProperty("knx_pa.softwaredevice");
+            if (individualAddress != null) {
+                break;
+            }
+        }
+        if (individualAddress == null) {
+            throw new IllegalArgumentException("None of the config files in " + configdir.getAbsolutePath() + " contains knx_pa.softwaredevice");
+        }
+
+        knx = new Knx();
+        log.info("Setting individual address to {}", individualAddress);
+        knx.setIndividualAddress(individualAddress);
+
+        for (File configfile : configfiles) {
+            String name = configfile.getName().substring(0, configfile.getName().length() - ".properties".length());
+            log.info("Loading installation '{}' from {}", name, configfile.getAbsolutePath());
+            installations.put(name, new HeliosKwlRemote(name, configfile, knx, individualAddress, engines));
+        }
+    }
+
+    @Override
+    public String[] getInstallations() {
+        return installations.keySet().toArray(new String[0]);
+    }
+
+    @Override
+    public String[] getRunningInstallations() {
+        List<String> running = new ArrayList<>();
+        for (Map.Entry<String, HeliosKwlRemote> entry : installations.entrySet()) {
+            if (entry.getValue().isRunning()) {
+                running.add(entry.getKey());
+            }
+        }
+        return running.toArray(new String[running.size()]);
+    }
+
+    @Override
+    public void start(String installation) throws IOException {
+        getInstallation(installation).start();
+    }
+
+    @Override
+    public void stop(String installation) throws IOException {
+        getInstallation(installation).stop();
+    }
+
+    /**
+     * Starts all installations. An installation whose bus is not available is
+     * skipped, it can be started later.
+     */
+    public void startAll() {
+        for (Map.Entry<String, HeliosKwlRemote> entry : installations.entrySet()) {
+            try {
+                entry.getValue().start();
+            } catch (IOException ex) {
+                log.error("Error starting installation '" + entry.getKey() + "'", ex);
+            }
+        }
+    }
+
+    public void stopAll() {
+        for (Map.Entry<String, HeliosKwlRemote> entry : installations.entrySet()) {
+            try {
+                entry.getValue().stop();
+            } catch (IOException ex) {
+                log.warn("Error stopping installation '" + entry.getKey() + "'", ex);
+            }
+        }
+    }
+
+    private HeliosKwlRemote getInstallation(String installation) {
+        HeliosKwlRemote remote = installations.get(installation);
+        if (remote == null) {
+            throw new IllegalArgumentException("Installation '" + installation + "' unknown.");
+        }
+        return remote;
+    }
+
+    /**
+     * Runs all installations of a directory
+     *
+     * @param args -d &lt;configdir&gt;
+     * @throws IOException if a config file cannot be read
+     * @throws KnxException if KNX is not available
+     */
+    public static void main(String[] args) throws IOException, KnxException {
+        if (args.length != 2 || !args[0].equals("-d")) {
+            System.err.println("Please specify the config directory with '-d <configdir>' ...");
+            System.exit(1);
+        }
+        File dir = new File(args[1]);
+        if (!dir.isDirectory()) {
+            System.err.println("Given config directory '" + args[1] + "' does not exist.");
+            System.exit(1);
+        }
+
+        final HeliosKwlHost host = new HeliosKwlHost(dir);
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(host, new ObjectName("de.root1.helios:type=Host"));
+        } catch (JMException ex) {
+            log.warn("Cannot register host in JMX", ex);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread("HeliosKwlHostShutdown") {
+
+            @Override
+            public void run() {
+                host.stopAll();
+            }
+        });
+        host.startAll();
+        while (!Thread.interrupted()) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+}
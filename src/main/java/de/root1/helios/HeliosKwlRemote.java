@@ -26,12 +26,25 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.Timer;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Handler;
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,6 +61,22 @@ public class HeliosKwlRemote {
     private static final int DEFAULT_STANDBY_DELAY = 300000;
     private static final int MINIMUM_STANDBY_DELAY = 15000; // 10sec
     private static final int STANDBY_MODE_DISABLED = -1;
+    /**
+     * 1min -> default value for max. poll interval of unchanged variables
+     */
+    private static final int DEFAULT_POLL_INTERVAL_MAX = 60000;
+    /**
+     * 300ms -> default window for merging writes to the same variable
+     */
+    private static final int DEFAULT_WRITE_COALESCE_WINDOW = 300;
+    /**
+     * 10sec -> default time between two samples of the history
+     */
+    private static final int DEFAULT_HISTORY_INTERVAL = 10000;
+    /**
+     * 5min -> default time between two saves of the register snapshot
+     */
+    private static final int DEFAULT_SNAPSHOT_INTERVAL = 300000;
 
     static {
         if (System.getProperty("java.util.logging.config.file") == null) {
@@ -59,12 +88,20 @@ public class HeliosKwlRemote {
             }
         }
     }
+    private final String name;
     private final Helios h;
     private final Knx knx;
     private String individualAddress;
     private Properties p;
-
-    private final Timer t = new Timer("StandbyStateSwitcher", true);
+    private final boolean sendOnUpdate;
+    private volatile boolean running;
+    // threads of a running installation, interrupted on stop
+    private final List<Thread> threads = new ArrayList<>();
+    private boolean sendOnUpdateRegistered;
+    private MetricsHttpServer metricsServer;
+
+    // shared by all installations in this JVM
+    private static final Timer t = new Timer("StandbyStateSwitcher", true);
     private boolean standbySwitcherScheduled;
     private final Object STANDBY_LOCK = new Object();
     private StandbySwitcher standbySwitcher = new StandbySwitcher(false);
@@ -76,7 +113,24 @@ public class HeliosKwlRemote {
 
     private int lastFanspeed;
 
-    private Map<String, HeliosVariableCache> cachedVariables;
+    // by unit number and variable index, null for units without KNX group addresses
+    private final HeliosVariableCache[][] cachedVariables = new HeliosVariableCache[16][];
+    // by unit number
+    private final PollScheduler[] pollSchedulers = new PollScheduler[16];
+    // refreshes stale values after answering a read request from cache
+    private static final ExecutorService refreshExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "KnxReadRefresh");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    private final WriteCoalescer writeCoalescer;
+    private HistoryStore history;
+    private HistoryRecorder historyRecorder;
+    private RegisterSnapshot registerSnapshot;
 
     class StandbySwitcher extends TimerTask {
 
@@ -90,6 +144,11 @@ public class HeliosKwlRemote {
         public void run() {
 
             synchronized (STANDBY_LOCK) {
+                if (!running) {
+                    log.info("Installation stopped, not switching standby state");
+                    standbySwitcherScheduled = false;
+                    return;
+                }
                 if (targetStandbyState == currentStandbyState) {
                     log.debug("Nothing to do for standby switcher, as target state equals current state: {}", currentStandbyState);
                     standbySwitcherScheduled = false;
@@ -144,6 +203,22 @@ public class HeliosKwlRemote {
                                 case 0:
                                     log.info("Switching power-state to ON (takes some time...)");
                                     h.writeValue("power_state", 1);
+                                    // queued until the unit has settled, don't hold the standby lock meanwhile
+                                    log.info("Restore last fanspeed after power-on: {}", lastFanspeed);
+                                    final int fanspeed = lastFanspeed;
+                                    h.writeAsync("fanspeed", fanspeed).addCallback(new HeliosCallback<Void>() {
+
+                                        @Override
+                                        public void onSuccess(Void result) {
+                                            log.info("Restored last fanspeed: {}", fanspeed);
+                                        }
+
+                                        @Override
+                                        public void onFailure(Exception error) {
+                                            log.error("Error restoring last fanspeed " + fanspeed, error);
+                                        }
+                                    });
+                                    break;
                                 default:
                                     log.info("Restore last fanspeed: {}", lastFanspeed);
                                     h.writeValue("fanspeed", lastFanspeed);
@@ -160,7 +235,7 @@ public class HeliosKwlRemote {
 
                 } catch (Throwable ex) {
                     log.error("Error triggering idle state. Will retrigger in 10sec.", ex);
-                    t.schedule(this, 10000); // retrigger after 10sec.
+                    t.schedule(createNew(), 10000); // retrigger after 10sec.
                 }
             }
 
@@ -181,14 +256,47 @@ public class HeliosKwlRemote {
 
     }
 
+    /**
+     * Starts a bridge with its own KNX connection
+     *
+     * @param configfile the configuration
+     * @throws IOException if the config cannot be read or the bus is not
+     * available
+     * @throws KnxException if KNX is not available
+     */
     public HeliosKwlRemote(File configfile) throws IOException, KnxException {
+        this(null, configfile, new Knx(), null, new HashMap<String, Helios>());
+        start();
+    }
+
+    /**
+     * Creates a bridge for one installation, without starting it
+     *
+     * @param name name of installation, <code>null</code> if it is the only
+     * one in this JVM
+     * @param configfile the configuration
+     * @param knxConnection the KNX connection, may be shared with other
+     * installations
+     * @param sharedAddress individual address of a shared KNX connection,
+     * <code>null</code> to set the address given in the configuration
+     * @param engines buses by gateway, shared with other installations. The
+     * bus of this installation is taken from it, or created and added.
+     * @throws IOException if the config cannot be read
+     * @throws KnxException if the group address listeners cannot be added
+     */
+    HeliosKwlRemote(String name, File configfile, Knx knxConnection, String sharedAddress, Map<String, Helios> engines) throws IOException, KnxException {
+        this.name = name;
+        this.knx = knxConnection;
+        this.individualAddress = sharedAddress;
         readConfig(configfile);
 
         int port = getIntFromProperties("port", 4000);
         String host = p.getProperty("host");
         boolean restoreFanspeedAfterBoost = getBooleanFromProperties("restore_fanspeed_after_boost", false);
-        int keeptime = getIntFromProperties("cache_keep", 1000);
-        boolean sendOnUpdate = getBooleanFromProperties("send_on_update", false);
+        final int keeptime = getIntFromProperties("cache_keep", 1000);
+        sendOnUpdate = getBooleanFromProperties("send_on_update", false);
+        final boolean staleWhileRevalidate = getBooleanFromProperties("stale_while_revalidate", false);
+        boolean passiveListening = getBooleanFromProperties("passive_listening", false);
         standbySpeed = getIntFromProperties("standby_speed", -1);
         standbyDelay = getIntFromProperties("standby_delay", DEFAULT_STANDBY_DELAY);
         if (standbyDelay < MINIMUM_STANDBY_DELAY) {
@@ -196,92 +304,101 @@ public class HeliosKwlRemote {
             log.info("Increasing standbydelay to minimum allowed value: {}ms", MINIMUM_STANDBY_DELAY);
         }
 
-        log.info("Connecting to Helios KWL on {}:{}", p.getProperty("host"), p.getProperty("port"));
-        h = new Helios(host, port);
-        h.setRestoreFanspeedAfterBoost(restoreFanspeedAfterBoost);
-        h.connect();
-        knx = new Knx();
-        log.info("Initialize cache variables with {}ms cache-keep-time", keeptime);
-        cachedVariables = h.getCachedVariables(keeptime);
-
-        Thread updater = new Thread() {
-
-            @Override
-            public void run() {
-                while (!knx.hasIndividualAddress()) {
-                    try {
-                        log.info("Waiting for KNX individual address");
-                        Thread.sleep(1000);
-                    } catch (InterruptedException ex) {
-                        interrupt();
-                    }
+        String serialDevice = p.getProperty("serial_device");
+        // one bus master per gateway, even if several installations use it
+        String gateway = serialDevice != null ? serialDevice : host + ":" + port;
+        // broadcasts would change all units on the bus
+        boolean broadcastWrites = getConfiguredUnits().size() <= 1;
+        synchronized (engines) {
+            Helios engine = engines.get(gateway);
+            if (engine != null) {
+                log.info("Sharing Helios KWL bus on {} with other installations, using their bus settings", gateway);
+            } else {
+                log.info("Connecting to Helios KWL on {}", gateway);
+                if (serialDevice != null) {
+                    engine = new Helios(new SerialTransport(serialDevice, p.getProperty("serial_stty")));
+                } else {
+                    engine = new Helios(host, port);
                 }
-                log.info("running!");
-                while (!interrupted()) {
-                    for (Map.Entry<String, HeliosVariableCache> entrySet : cachedVariables.entrySet()) {
-                        String varname = entrySet.getKey();
-
-                        String ga = p.getProperty("knx_ga." + varname, "not known");
-                        if (!ga.equals("not known")) {
-                            HeliosVariableCache cachedVariable = entrySet.getValue();
-                            try {
-                                int oldValue = cachedVariable.getValue();
-                                if (cachedVariable.hasChanged()) {
-
-                                    int newValue = cachedVariable.getValue();
-
-                                    log.info("'{}' changed value from {} to {}. Sending update to {}", new Object[]{varname, oldValue, newValue, ga});
+                engine.setRestoreFanspeedAfterBoost(restoreFanspeedAfterBoost);
+                engine.setPassiveListening(passiveListening);
+                engine.setBroadcastWrites(broadcastWrites);
+                engines.put(gateway, engine);
+            }
+            if (!broadcastWrites && engine.isBroadcastWrites()) {
+                log.info("Several ventilation units on {}, writing to each unit directly", gateway);
+                engine.setBroadcastWrites(false);
+            }
+            h = engine;
+        }
 
-                                    Variable variable = h.getVariable(varname);
-                                    send(false, newValue, ga, variable);
+        log.info("Initialize cache variables with {}ms cache-keep-time", keeptime);
 
-                                }
+        // units and their variables that are used on KNX
+        Map<Integer, Map<String, Long>> pollIntervals = new TreeMap<>();
+        for (String prop : p.stringPropertyNames()) {
+            if (prop.startsWith("knx_ga.")) {
+                int unit = getUnitFromKey(prop);
+                String varname = getVarnameFromKey(prop);
+                if (unit == -1 || h.getVariable(varname) == null) {
+                    continue;
+                }
+                Map<String, Long> intervals = pollIntervals.get(unit);
+                if (intervals == null) {
+                    intervals = new HashMap<>();
+                    pollIntervals.put(unit, intervals);
+                }
+                intervals.put(varname, (long) getIntFromProperties("poll_interval." + varname, keeptime));
+            }
+        }
+        for (Map.Entry<Integer, Map<String, Long>> entry : pollIntervals.entrySet()) {
+            HeliosUnit unit = h.getUnit(entry.getKey());
+            log.info("Using ventilation {} with {} variables", unit, entry.getValue().size());
+            cachedVariables[unit.getNumber()] = unit.getCachedVariableArray(keeptime);
+            pollSchedulers[unit.getNumber()] = new PollScheduler(unit, entry.getValue(), getIntFromProperties("poll_interval_max", DEFAULT_POLL_INTERVAL_MAX));
+        }
+        writeCoalescer = new WriteCoalescer(h, getIntFromProperties("write_coalesce_window", DEFAULT_WRITE_COALESCE_WINDOW));
+
+        String historyFile = p.getProperty("history_file");
+        if (historyFile != null) {
+            List<String> columns = HistoryRecorder.parseColumns(p.getProperty("history_vars", ""));
+            history = new HistoryStore(new File(historyFile), columns,
+                    getIntFromProperties("history_samples", 8640),
+                    getIntFromProperties("history_minutes", 10080),
+                    getIntFromProperties("history_hours", 8760));
+            historyRecorder = new HistoryRecorder(h, columns, history,
+                    getIntFromProperties("history_interval", DEFAULT_HISTORY_INTERVAL),
+                    2 * getIntFromProperties("poll_interval_max", DEFAULT_POLL_INTERVAL_MAX));
+        }
 
-                            } catch (Exception ex) {
-                                log.error("Error updating variable '" + varname + "'", ex);
-                                ex.printStackTrace();
-                            }
+        String snapshotFile = p.getProperty("snapshot_file");
+        if (snapshotFile != null) {
+            registerSnapshot = new RegisterSnapshot(h, new File(snapshotFile), getIntFromProperties("snapshot_interval", DEFAULT_SNAPSHOT_INTERVAL));
+            if (registerSnapshot.load() > 0) {
+                // answer read requests with the values from before the restart until refreshed
+                for (HeliosUnit unit : h.getUnits()) {
+                    HeliosVariableCache[] caches = cachedVariables[unit.getNumber()];
+                    for (int i = 0; caches != null && i < caches.length; i++) {
+                        Integer value = unit.getCachedValue(i, Long.MAX_VALUE);
+                        if (value != null) {
+                            caches[i].restore(value);
                         }
-
-                    }
-                    try {
-                        Thread.sleep(500);
-                    } catch (InterruptedException ex) {
-                        interrupt();
                     }
                 }
-                log.info("Thread interrupted...");
             }
-
-        };
-        updater.setName("SendOnUpdate");
-
-        if (sendOnUpdate) {
-            log.info("Starting SendOnUpdate thread");
-            updater.start();
-        } else {
-            log.info("Not using SendOnUpdate thread");
         }
 
         Enumeration<String> propertyNames = (Enumeration<String>) p.propertyNames();
         while (propertyNames.hasMoreElements()) {
             String prop = propertyNames.nextElement();
 
-            if (prop.startsWith("default.")) {
-                String varname = prop.split("\\.")[1];
-                String value = p.getProperty(prop);
-
-                try {
-                    log.info("Setting default: {} -> {}", varname, value);
-                    h.writeValue(varname, Integer.parseInt(value));
-                } catch (TelegramException ex) {
-                    ex.printStackTrace();
-                } catch (IllegalArgumentException ex) {
-                    ex.printStackTrace();
-                } catch (UnsupportedOperationException ex) {
-                    ex.printStackTrace();
+            if (prop.equals("knx_pa.softwaredevice")) {
+                if (individualAddress != null) {
+                    if (!individualAddress.equals(p.getProperty(prop))) {
+                        log.warn("KNX connection is shared, using its individual address {} instead of {}", individualAddress, p.getProperty(prop));
+                    }
+                    continue;
                 }
-            } else if (prop.equals("knx_pa.softwaredevice")) {
                 individualAddress = p.getProperty(prop);
                 log.info("Setting individual address to {}", individualAddress);
                 try {
@@ -290,19 +407,37 @@ public class HeliosKwlRemote {
                     ex.printStackTrace();
                 }
             } else if (prop.startsWith("knx_ga.")) {
-                final String varname = prop.split("\\.")[1];
+                final int unitNumber = getUnitFromKey(prop);
+                if (unitNumber == -1) {
+                    log.warn("Invalid unit in '{}', must be in range [1..15]. Ignoring it.", prop);
+                    continue;
+                }
+                final String varname = getVarnameFromKey(prop);
                 final String ga = p.getProperty(prop);
-                log.info("Register listener for '{}' on {}", varname, ga);
+                // resolved once, null for special variables like standby
+                final Variable variable = h.getVariable(varname);
+                final HeliosUnit unit = h.getUnit(unitNumber);
+                final HeliosVariableCache cache = variable == null ? null : cachedVariables[unitNumber][variable.index];
+                final PollScheduler pollScheduler = pollSchedulers[unitNumber];
+                final VariableListener refreshed = createRefreshListener(ga, !sendOnUpdate);
+                log.info("Register listener for '{}' of {} on {}", new Object[]{varname, unit, ga});
                 knx.addGroupAddressListener(ga, new GroupAddressListener() {
 
                     @Override
                     public void readRequest(GroupAddressEvent event) {
-                        if (knx.hasIndividualAddress()) {
-                            Variable variable = h.getVariable(varname);
+                        if (running && knx.hasIndividualAddress()) {
                             if (variable != null) {
                                 try {
-                                    //                                int value = h.readValue(varname);
-                                    int value = cachedVariables.get(varname).forcedGet();
+                                    int value;
+                                    // answer immediately, refresh in background if stale
+                                    Integer stale = staleWhileRevalidate ? cache.getStale(refreshExecutor, refreshed) : null;
+                                    if (stale != null) {
+                                        value = stale;
+                                    } else {
+                                        //                                int value = h.readValue(varname);
+                                        value = cache.forcedGet();
+                                    }
+                                    pollScheduler.touch(variable.index);
                                     log.info("ReadRequest for '{}' --> {}", varname, value);
                                     send(true, value, ga, variable);
 
@@ -335,8 +470,7 @@ public class HeliosKwlRemote {
                     @Override
                     public void write(GroupAddressEvent event) {
                         // if event is not from us and is not a response
-                        if (knx.hasIndividualAddress() & !event.getSource().equals(individualAddress) && event.getType() == GroupAddressEvent.Type.GROUP_WRITE) {
-                            Variable variable = h.getVariable(varname);
+                        if (running && knx.hasIndividualAddress() & !event.getSource().equals(individualAddress) && event.getType() == GroupAddressEvent.Type.GROUP_WRITE) {
                             if (variable != null) {
                                 int value = -1;
                                 try {
@@ -359,12 +493,9 @@ public class HeliosKwlRemote {
                                             break;
                                     }
                                     log.info("Write for '{}' --> {}", varname, value);
-                                    h.writeValue(varname, value);
+                                    writeCoalescer.write(unit, variable, value);
+                                    pollScheduler.touch(variable.index);
 
-                                } catch (IOException ex) {
-                                    ex.printStackTrace();
-                                } catch (TelegramException ex) {
-                                    ex.printStackTrace();
                                 } catch (KnxException ex) {
                                     ex.printStackTrace();
                                 }
@@ -389,6 +520,271 @@ public class HeliosKwlRemote {
         }
     }
 
+    /**
+     * Connects to the bus and starts bridging to KNX
+     *
+     * @throws IOException if the bus is not available
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        log.info("Starting{}", name == null ? "" : " installation '" + name + "'");
+        // fails if the port is in use, before anything else has been started
+        int metricsPort = getIntFromProperties("metrics_http_port", -1);
+        if (metricsPort != -1) {
+            metricsServer = new MetricsHttpServer(metricsPort, h.getMetrics());
+            metricsServer.start();
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(h.getMetrics(), getMetricsName());
+        } catch (JMException ex) {
+            log.warn("Cannot register bus metrics in JMX", ex);
+        }
+        try {
+            h.attach();
+        } catch (IOException ex) {
+            // not running, so stop() would not clean up
+            stopMetrics();
+            throw ex;
+        }
+        running = true;
+        if (historyRecorder != null) {
+            historyRecorder.start();
+        }
+        if (registerSnapshot != null) {
+            registerSnapshot.start();
+        }
+
+        if (sendOnUpdate) {
+            log.info("Starting SendOnUpdate thread");
+            Thread updater = new Thread() {
+
+                @Override
+                public void run() {
+                    while (!knx.hasIndividualAddress()) {
+                        try {
+                            log.info("Waiting for KNX individual address");
+                            Thread.sleep(1000);
+                        } catch (InterruptedException ex) {
+                            // stopped
+                            return;
+                        }
+                    }
+                    log.info("running!");
+
+                    registerSendOnUpdate();
+
+                    // refresh all variables that have not been seen on the bus for a while,
+                    // one poller per unit, the bus scheduler lets them take turns
+                    for (final PollScheduler pollScheduler : pollSchedulers) {
+                        if (pollScheduler == null) {
+                            continue;
+                        }
+                        Thread poller = new Thread() {
+
+                            @Override
+                            public void run() {
+                                pollScheduler.run();
+                                log.info("Thread interrupted...");
+                            }
+                        };
+                        poller.setName(getThreadName("SendOnUpdate-" + pollScheduler.getUnit().getNumber()));
+                        poller.setDaemon(true);
+                        synchronized (HeliosKwlRemote.this) {
+                            if (!running) {
+                                return;
+                            }
+                            threads.add(poller);
+                            poller.start();
+                        }
+                    }
+                }
+
+            };
+            updater.setName(getThreadName("SendOnUpdate"));
+            updater.setDaemon(true);
+            threads.add(updater);
+            updater.start();
+        } else {
+            log.info("Not using SendOnUpdate thread");
+        }
+
+        // the KNX listeners are already active, set the defaults in background
+        Thread defaults = new Thread() {
+
+            @Override
+            public void run() {
+                applyDefaults();
+            }
+        };
+        defaults.setName(getThreadName("ApplyDefaults"));
+        defaults.setDaemon(true);
+        threads.add(defaults);
+        defaults.start();
+    }
+
+    /**
+     * Stops bridging to KNX and disconnects from the bus. Can be started
+     * again.
+     *
+     * @throws IOException if disconnecting fails
+     */
+    public synchronized void stop() throws IOException {
+        if (!running) {
+            return;
+        }
+        log.info("Stopping{}", name == null ? "" : " installation '" + name + "'");
+        running = false;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        threads.clear();
+        if (historyRecorder != null) {
+            historyRecorder.stop();
+        }
+        if (registerSnapshot != null) {
+            registerSnapshot.stop();
+        }
+        synchronized (STANDBY_LOCK) {
+            standbySwitcher.cancel();
+            standbySwitcherScheduled = false;
+        }
+        stopMetrics();
+        h.detach();
+    }
+
+    private void stopMetrics() {
+        if (metricsServer != null) {
+            metricsServer.stop();
+            metricsServer = null;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(getMetricsName());
+        } catch (JMException ex) {
+            log.debug("Cannot unregister bus metrics from JMX: {}", ex.getMessage());
+        }
+    }
+
+    /**
+     * @return the recorded history of the variables given in
+     * <code>history_vars</code>, or <code>null</code> if no
+     * <code>history_file</code> is configured
+     */
+    public HistoryStore getHistory() {
+        return history;
+    }
+
+    /**
+     * Writes the <code>default.*</code> values that differ from the current
+     * values of the units. Writes are queued without waiting for the bus.
+     *
+     * @see HeliosUnit#writeIfDifferent(java.util.Map)
+     */
+    private void applyDefaults() {
+        // defaults by unit number
+        Map<Integer, Map<String, Integer>> defaults = new TreeMap<>();
+        for (String prop : p.stringPropertyNames()) {
+            if (!prop.startsWith("default.")) {
+                continue;
+            }
+            int unit = getUnitFromKey(prop);
+            String varname = getVarnameFromKey(prop);
+            Variable variable = h.getVariable(varname);
+            if (unit == -1 || variable == null || !variable.write) {
+                log.warn("Ignoring default '{}', no writable variable", prop);
+                continue;
+            }
+            int value;
+            try {
+                value = Integer.parseInt(p.getProperty(prop).trim());
+            } catch (NumberFormatException ex) {
+                log.warn("Ignoring default '{}', '{}' is not a number", prop, p.getProperty(prop));
+                continue;
+            }
+            Map<String, Integer> values = defaults.get(unit);
+            if (values == null) {
+                values = new TreeMap<>();
+                defaults.put(unit, values);
+            }
+            values.put(varname, value);
+        }
+
+        for (Map.Entry<Integer, Map<String, Integer>> entry : defaults.entrySet()) {
+            if (!running) {
+                return;
+            }
+            final HeliosUnit unit = h.getUnit(entry.getKey());
+            Map<String, HeliosFuture<Void>> writes = unit.writeIfDifferent(entry.getValue());
+            for (Map.Entry<String, Integer> value : entry.getValue().entrySet()) {
+                final String varname = value.getKey();
+                HeliosFuture<Void> write = writes.get(varname);
+                if (write == null) {
+                    log.info("Default of '{}' of {} already set: {}", new Object[]{varname, unit, value.getValue()});
+                    continue;
+                }
+                log.info("Setting default: '{}' of {} -> {}", new Object[]{varname, unit, value.getValue()});
+                write.addCallback(new HeliosCallback<Void>() {
+
+                    @Override
+                    public void onSuccess(Void result) {
+                    }
+
+                    @Override
+                    public void onFailure(Exception error) {
+                        log.error("Error setting default of '" + varname + "' of " + unit, error);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Changes are pushed to KNX as soon as they are seen on the bus. The
+     * listeners are added once and stay when the installation is stopped, as
+     * there is no traffic without connection.
+     */
+    private synchronized void registerSendOnUpdate() {
+        if (sendOnUpdateRegistered) {
+            return;
+        }
+        sendOnUpdateRegistered = true;
+        for (String prop : p.stringPropertyNames()) {
+            int unit = getUnitFromKey(prop);
+            if (!prop.startsWith("knx_ga.") || unit == -1 || h.getVariable(getVarnameFromKey(prop)) == null) {
+                continue;
+            }
+            final String ga = p.getProperty(prop);
+            h.getUnit(unit).addVariableListener(getVarnameFromKey(prop), new VariableListener() {
+
+                @Override
+                public void valueChanged(Variable variable, int value) {
+                    log.info("'{}' changed value to {}. Sending update to {}", new Object[]{variable.name, value, ga});
+                    try {
+                        send(false, value, ga, variable);
+                    } catch (KnxException ex) {
+                        log.error("Error sending update of '" + variable.name + "'", ex);
+                    }
+                }
+            });
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    private ObjectName getMetricsName() throws MalformedObjectNameException {
+        if (name == null) {
+            return new ObjectName("de.root1.helios:type=BusMetrics");
+        }
+        return new ObjectName("de.root1.helios:type=BusMetrics,installation=" + ObjectName.quote(name));
+    }
+
+    private String getThreadName(String thread) {
+        return name == null ? thread : thread + "@" + name;
+    }
+
     private int getIntFromProperties(String name, int defaultValue) {
         String stringValue = p.getProperty(name, Integer.toString(defaultValue)).trim();
         try {
@@ -496,6 +892,33 @@ public class HeliosKwlRemote {
         }
     }
 
+    /**
+     * Creates the listener for values read again in background, after a read
+     * request has been answered from cache
+     *
+     * @param ga group address of the variable
+     * @param sendChange true, to send the new value to KNX if it has changed.
+     * Not needed if changes are already sent by send_on_update.
+     * @return the listener
+     */
+    private VariableListener createRefreshListener(final String ga, final boolean sendChange) {
+        return new VariableListener() {
+
+            @Override
+            public void valueChanged(Variable variable, int value) {
+                if (!sendChange) {
+                    return;
+                }
+                log.info("'{}' changed value to {} while answered from cache. Sending update to {}", new Object[]{variable.name, value, ga});
+                try {
+                    send(false, value, ga, variable);
+                } catch (KnxException ex) {
+                    log.error("Error sending update of '" + variable.name + "'", ex);
+                }
+            }
+        };
+    }
+
     private void send(boolean isResponse, int value, String ga, Variable variable) throws KnxException {
         log.debug("isResponse={} value={}, ga={}, variable={}", new Object[]{isResponse, value, ga, variable});
         switch (variable.type) {
@@ -517,6 +940,58 @@ public class HeliosKwlRemote {
         }
     }
 
+    /**
+     * Gets the unit number of keys like <code>knx_ga.2.fanspeed</code>. Keys
+     * without unit, like <code>knx_ga.fanspeed</code>, belong to the 1st unit.
+     *
+     * @param key the key
+     * @return unit number, or -1 if unit is out of range [1..15]
+     */
+    private int getUnitFromKey(String key) {
+        String[] parts = key.split("\\.");
+        if (parts.length < 3) {
+            return 1;
+        }
+        try {
+            int unit = Integer.parseInt(parts[1]);
+            return unit >= 1 && unit <= 15 ? unit : -1;
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param key key like <code>knx_ga.2.fanspeed</code> or
+     * <code>knx_ga.fanspeed</code>
+     * @return the variable name
+     */
+    private String getVarnameFromKey(String key) {
+        String[] parts = key.split("\\.");
+        return parts[parts.length - 1];
+    }
+
+    /**
+     * @return numbers of the units used in the configuration, always
+     * including unit 1
+     */
+    private Set<Integer> getConfiguredUnits() {
+        Set<Integer> units = new TreeSet<>();
+        units.add(1);
+        List<String> keys = new ArrayList<>(p.stringPropertyNames());
+        for (String column : HistoryRecorder.parseColumns(p.getProperty("history_vars", ""))) {
+            keys.add("history_vars." + column);
+        }
+        for (String key : keys) {
+            if (key.startsWith("knx_ga.") || key.startsWith("default.") || key.startsWith("history_vars.")) {
+                int unit = getUnitFromKey(key);
+                if (unit != -1) {
+                    units.add(unit);
+                }
+            }
+        }
+        return units;
+    }
+
     private void readConfig(File configfile) throws FileNotFoundException, IOException {
         p = new Properties();
         p.load(new FileReader(configfile));
@@ -527,7 +1002,11 @@ public class HeliosKwlRemote {
         File option1 = new File("/etc/helioskwlremote/config.properties");
         File option2 = new File("config.properties");
         File f = option2;
-        if (args.length == 2 && args[0].equals("-f")) {
+        if (args.length == 2 && args[0].equals("-d")) {
+            // host mode: one installation per config file in the directory
+            HeliosKwlHost.main(args);
+            return;
+        } else if (args.length == 2 && args[0].equals("-f")) {
             f = new File(args[1]);
             if (!f.exists() || f.isDirectory()) {
                 System.err.println("Given config file '" + args[1] + "' does not exist.");
@@ -551,7 +1030,18 @@ public class HeliosKwlRemote {
             }
         }
 
-        new HeliosKwlRemote(f);
+        final HeliosKwlRemote remote = new HeliosKwlRemote(f);
+        Runtime.getRuntime().addShutdownHook(new Thread("HeliosKwlRemoteShutdown") {
+
+            @Override
+            public void run() {
+                try {
+                    remote.stop();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        });
         while (!Thread.interrupted()) {
             try {
                 Thread.sleep(1000);
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link HeliosFuture} that is completed explicitly
+ *
+ * @param <T> type of result
+ * @author achristian
+ */
+class HeliosPromise<T> implements HeliosFuture<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(HeliosPromise.class);
+
+    private boolean done;
+    private T result;
+    private Exception error;
+    private List<HeliosCallback<? super T>> callbacks = new ArrayList<>();
+
+    /**
+     * Completes successfully. Has no effect if already completed.
+     *
+     * @param result the result
+     */
+    void complete(T result) {
+        complete(result, null);
+    }
+
+    /**
+     * Completes with failure. Has no effect if already completed.
+     *
+     * @param error the cause
+     */
+    void fail(Exception error) {
+        complete(null, error);
+    }
+
+    private void complete(T result, Exception error) {
+        List<HeliosCallback<? super T>> toCall;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            this.result = result;
+            this.error = error;
+            done = true;
+            notifyAll();
+            toCall = callbacks;
+            callbacks = null;
+        }
+        for (HeliosCallback<? super T> callback : toCall) {
+            call(callback);
+        }
+    }
+
+    @Override
+    public void addCallback(HeliosCallback<? super T> callback) {
+        synchronized (this) {
+            if (!done) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        call(callback);
+    }
+
+    private void call(final HeliosCallback<? super T> callback) {
+        Helios.listenerExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    if (error == null) {
+                        callback.onSuccess(result);
+                    } else {
+                        callback.onFailure(error);
+                    }
+                } catch (Exception ex) {
+                    log.error("Error in callback", ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * Cancelling is not supported, bus requests are always executed
+     *
+     * @return false
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while (!done) {
+            wait();
+        }
+        return getResult();
+    }
+
+    @Override
+    public synchronized T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long end = System.currentTimeMillis() + unit.toMillis(timeout);
+        while (!done) {
+            long remaining = end - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            wait(remaining);
+        }
+        return getResult();
+    }
+
+    private T getResult() throws ExecutionException {
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return result;
+    }
+
+}
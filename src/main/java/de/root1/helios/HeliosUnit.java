@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One ventilation unit (mainboard) on the bus. Each unit has its own register
+ * cache and variable listeners, all units share the connection and the bus
+ * scheduler of their {@link Helios} instance.
+ *
+ * @author achristian
+ * @see Helios#getUnit(int)
+ */
+public class HeliosUnit {
+
+    private static final Logger log = LoggerFactory.getLogger(HeliosUnit.class);
+
+    private final Helios h;
+    private final int number;
+    final byte address;
+    final RegisterImage registerImage = new RegisterImage();
+    // listeners by variable index
+    final List<List<VariableListener>> variableListeners = new ArrayList<>();
+    // end of the current power state settle window
+    volatile long settleUntil;
+
+    /**
+     * @param h the bus
+     * @param number number of unit, in range [1..15]
+     */
+    HeliosUnit(Helios h, int number) {
+        this.h = h;
+        this.number = number;
+        this.address = (byte) (h.CONST_BUS_ALL_MAINBOARDS + number);
+        for (int i = 0; i < h.getVariableCount(); i++) {
+            variableListeners.add(new CopyOnWriteArrayList<VariableListener>());
+        }
+    }
+
+    /**
+     * @return number of unit, in range [1..15]
+     */
+    public int getNumber() {
+        return number;
+    }
+
+    Helios getHelios() {
+        return h;
+    }
+
+    /**
+     * @param varname the variable to read
+     * @return the value
+     * @throws IOException in case of problems with stream communication
+     * @throws TelegramException in case of read/write problems with telegram
+     * @throws IllegalArgumentException if variable is unknown
+     * @throws UnsupportedOperationException if variable may not be read
+     */
+    public int readValue(String varname) throws IOException, TelegramException {
+        return h.await(readAsync(varname));
+    }
+
+    /**
+     * @param index index of the variable to read
+     * @return the value
+     * @throws IOException in case of problems with stream communication
+     * @throws TelegramException in case of read/write problems with telegram
+     * @throws IllegalArgumentException if index is out of range
+     * @throws UnsupportedOperationException if variable may not be read
+     */
+    public int readValue(int index) throws IOException, TelegramException {
+        return h.await(readAsync(index));
+    }
+
+    /**
+     * Reads a value without waiting for the bus
+     *
+     * @param varname the variable to read
+     * @return completes with the value
+     * @throws IllegalArgumentException if variable is unknown
+     * @throws UnsupportedOperationException if variable may not be read
+     */
+    public HeliosFuture<Integer> readAsync(String varname) {
+        return h.readAsync(this, h.lookupVariable(varname));
+    }
+
+    /**
+     * @param index index of the variable to read
+     * @return completes with the value
+     * @throws IllegalArgumentException if index is out of range
+     * @throws UnsupportedOperationException if variable may not be read
+     */
+    public HeliosFuture<Integer> readAsync(int index) {
+        return h.readAsync(this, h.getVariable(index));
+    }
+
+    /**
+     * Reads several variables at once with background priority
+     *
+     * @param varnames the variables to read
+     * @return map with variable name and value for all variables that could be
+     * read
+     * @throws IOException in case of problems with stream communication
+     * @see Helios#readValues(java.util.Collection)
+     */
+    public Map<String, Integer> readValues(Collection<String> varnames) throws IOException {
+        return h.readValues(this, varnames);
+    }
+
+    /**
+     * @param varname the variable to write to
+     * @param value the value to write
+     * @throws IOException in case of problems with stream communication
+     * @throws TelegramException in case of read/write problems with telegram
+     * @throws IllegalArgumentException if variable is unknown
+     * @throws UnsupportedOperationException if variable may not be written
+     */
+    public void writeValue(String varname, int value) throws IOException, TelegramException {
+        h.await(writeAsync(varname, value));
+    }
+
+    /**
+     * @param index index of the variable to write to
+     * @param value the value to write
+     * @throws IOException in case of problems with stream communication
+     * @throws TelegramException in case of read/write problems with telegram
+     * @throws IllegalArgumentException if index is out of range
+     * @throws UnsupportedOperationException if variable may not be written
+     */
+    public void writeValue(int index, int value) throws IOException, TelegramException {
+        h.await(writeAsync(index, value));
+    }
+
+    /**
+     * Writes a value without waiting for the bus
+     *
+     * @param varname the variable to write to
+     * @param value the value to write
+     * @return completes when the value has been written
+     * @throws IllegalArgumentException if variable is unknown
+     * @throws UnsupportedOperationException if variable may not be written
+     */
+    public HeliosFuture<Void> writeAsync(String varname, int value) {
+        return h.writeAsync(this, h.lookupVariable(varname), value);
+    }
+
+    /**
+     * @param index index of the variable to write to
+     * @param value the value to write
+     * @return completes when the value has been written
+     * @throws IllegalArgumentException if index is out of range
+     * @throws UnsupportedOperationException if variable may not be written
+     */
+    public HeliosFuture<Void> writeAsync(int index, int value) {
+        return h.writeAsync(this, h.getVariable(index), value);
+    }
+
+    /**
+     * Writes only the values that differ from the current ones. The current
+     * values are read at once, variables that cannot be read are always
+     * written.
+     *
+     * @param values variable names with the values to set
+     * @return the started writes by variable name
+     * @throws IllegalArgumentException if a variable is unknown
+     */
+    public Map<String, HeliosFuture<Void>> writeIfDifferent(Map<String, Integer> values) {
+        List<String> readable = new ArrayList<>();
+        for (String varname : values.keySet()) {
+            if (h.lookupVariable(varname).read) {
+                readable.add(varname);
+            }
+        }
+        Map<String, Integer> current = new HashMap<>();
+        if (!readable.isEmpty()) {
+            try {
+                current = readValues(readable);
+            } catch (IOException ex) {
+                log.error("Error reading current values of " + this + ", writing all values", ex);
+            }
+        }
+        Map<String, HeliosFuture<Void>> writes = new TreeMap<>();
+        for (Map.Entry<String, Integer> value : values.entrySet()) {
+            if (!value.getValue().equals(current.get(value.getKey()))) {
+                writes.put(value.getKey(), writeAsync(value.getKey(), value.getValue()));
+            }
+        }
+        return writes;
+    }
+
+    /**
+     * Adds a listener that gets notified whenever the value of the given
+     * variable of this unit changes
+     *
+     * @param varname name of variable
+     * @param listener the listener
+     * @throws IllegalArgumentException if variable is unknown
+     */
+    public void addVariableListener(String varname, VariableListener listener) {
+        addVariableListener(h.lookupVariable(varname).index, listener);
+    }
+
+    /**
+     * @param index index of variable
+     * @param listener the listener
+     * @throws IllegalArgumentException if index is out of range
+     */
+    public void addVariableListener(int index, VariableListener listener) {
+        variableListeners.get(h.getVariable(index).index).add(listener);
+    }
+
+    public void removeVariableListener(String varname, VariableListener listener) {
+        int index = h.getVariableIndex(varname);
+        if (index != -1) {
+            variableListeners.get(index).remove(listener);
+        }
+    }
+
+    /**
+     * Creates a cache for each variable of this unit
+     *
+     * @param maxtime max. time in ms a value is kept in cache
+     * @return map with variable name and cache
+     */
+    public Map<String, HeliosVariableCache> getCachedVariables(int maxtime) {
+        Map<String, HeliosVariableCache> map = new HashMap<>();
+        for (HeliosVariableCache cache : getCachedVariableArray(maxtime)) {
+            map.put(cache.getVariable().name, cache);
+        }
+        return map;
+    }
+
+    /**
+     * @param maxtime max. time in ms a value is kept in cache
+     * @return array with a cache for each variable, indexed by variable index
+     */
+    public HeliosVariableCache[] getCachedVariableArray(int maxtime) {
+        HeliosVariableCache[] caches = new HeliosVariableCache[h.getVariableCount()];
+        for (int i = 0; i < caches.length; i++) {
+            caches[i] = new HeliosVariableCache(this, h.getVariable(i), maxtime);
+        }
+        return caches;
+    }
+
+    /**
+     * @param index index of variable
+     * @param maxage maximum age of the cached register value in ms
+     * @return the value, or null if no recent value of the register is known
+     */
+    Integer getCachedValue(int index, long maxage) {
+        return h.getCachedValue(this, h.getVariable(index), maxage);
+    }
+
+    /**
+     * @param index index of variable
+     * @return time the register of the variable has been seen on the bus, 0
+     * if unknown
+     */
+    long getCachedTimestamp(int index) {
+        return registerImage.getTimestamp(h.getVariable(index).varid);
+    }
+
+    /**
+     * @return true, if this unit is busy after a power state change. Reads
+     * are answered from the register cache, if possible, writes are queued
+     * until it has settled.
+     */
+    public boolean isSettling() {
+        return settleUntil > System.currentTimeMillis();
+    }
+
+    @Override
+    public String toString() {
+        return "unit " + number;
+    }
+
+}
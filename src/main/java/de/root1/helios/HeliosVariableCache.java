@@ -19,10 +19,20 @@
 package de.root1.helios;
 
 import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Caches the value of a variable for a given time. The cache can be used by
+ * several threads at once without locking: value and time of the last update
+ * are replaced together as one snapshot. If several threads need a new value
+ * at the same time, only one of them reads it from the bus and the others wait
+ * for its result.
  *
  * @author achristian
  */
@@ -30,42 +40,186 @@ public class HeliosVariableCache {
 
     private static final Logger log = LoggerFactory.getLogger(HeliosVariableCache.class);
 
+    /**
+     * A value and the time it has been seen
+     */
+    private static class Snapshot {
+
+        final int value;
+        final long timestamp;
+
+        Snapshot(int value, long timestamp) {
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private final Variable var;
     private final String varname;
-    private boolean firstRun = true;
-    private int value;
-    private long maxtime;
-    private long lastaccess = System.currentTimeMillis() - maxtime;
-    private final Helios h;
+    private final long maxtime;
+    private final HeliosUnit unit;
+    // null until the first value is known
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+    // bus read in progress, shared by all threads waiting for a value
+    private final AtomicReference<FutureTask<Integer>> inFlight = new AtomicReference<>();
 
     public HeliosVariableCache(Helios h, String varname, long maxtime) {
-        this.h = h;
-        this.varname = varname;
+        this(h.getUnit(1), h.getVariable(varname), maxtime);
+    }
+
+    HeliosVariableCache(HeliosUnit unit, Variable var, long maxtime) {
+        this.unit = unit;
+        this.var = var;
+        this.varname = var.name;
         this.maxtime = maxtime;
     }
 
+    public Variable getVariable() {
+        return var;
+    }
+
     public boolean hasChanged() throws IOException, TelegramException {
 
-        if (System.currentTimeMillis() - lastaccess > maxtime) {
-
-            //log.info("Checking if {} has changed", varname);
-            int x = h.readValue(varname);
-            lastaccess = System.currentTimeMillis();
-            if (firstRun) {
-                log.debug("{} has value {}", varname, x);
-                value = x;
-                firstRun = false;
-                return true;
-            } else if (x != value) {
-                log.debug("{} has changed from {} to {}", varname, value, x);
-                value = x;
-                return true;
+        if (isExpired()) {
+            return update(fetch());
+        }
+        return false;
+    }
+
+    /**
+     * Gets the current value from the register cache, or reads it from the
+     * bus. Concurrent reads are collapsed into one.
+     *
+     * @return the value with the time it has been seen on the bus
+     */
+    private Snapshot fetch() throws IOException, TelegramException {
+        // no need to ask the bus if the register has just been read. Take the
+        // time first, a newer value seen meanwhile only makes it conservative.
+        long timestamp = unit.getCachedTimestamp(var.index);
+        Integer cached = unit.getCachedValue(var.index, maxtime);
+        if (cached != null) {
+            log.trace("{} taken from register cache", varname);
+            return new Snapshot(cached, timestamp);
+        }
+        while (true) {
+            FutureTask<Integer> task = inFlight.get();
+            if (task == null) {
+                task = new FutureTask<>(new Callable<Integer>() {
+
+                    @Override
+                    public Integer call() throws Exception {
+                        return unit.readValue(var.index);
+                    }
+                });
+                if (!inFlight.compareAndSet(null, task)) {
+                    // another thread has just started reading
+                    continue;
+                }
+                try {
+                    task.run();
+                } finally {
+                    inFlight.compareAndSet(task, null);
+                }
+            } else {
+                log.trace("{} is already being read, waiting for result", varname);
             }
+            try {
+                return new Snapshot(task.get(), System.currentTimeMillis());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new TelegramException("Interrupted while reading '" + varname + "'", ex);
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof TelegramException) {
+                    throw (TelegramException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new TelegramException("Error reading '" + varname + "'", cause);
+            }
+        }
+    }
+
+    /**
+     * @return true, if the cached value is older than the max. cache time
+     */
+    public boolean isExpired() {
+        Snapshot current = snapshot.get();
+        return current == null || System.currentTimeMillis() - current.timestamp > maxtime;
+    }
+
+    /**
+     * Updates the cache with a value that has been read elsewhere, e.g. by
+     * {@link Helios#readValues(java.util.Collection)}
+     *
+     * @param x the current value
+     * @return true, if the value has changed
+     */
+    public boolean update(int x) {
+        return update(new Snapshot(x, System.currentTimeMillis()));
+    }
+
+    private boolean update(Snapshot current) {
+        int x = current.value;
+        Snapshot previous = snapshot.getAndSet(current);
+        if (previous == null) {
+            log.debug("{} has value {}", varname, x);
+            return true;
+        } else if (x != previous.value) {
+            log.debug("{} has changed from {} to {}", varname, previous.value, x);
+            return true;
         }
         return false;
     }
 
+    /**
+     * Sets a value seen before, e.g. in a previous run, if no value is known
+     * yet. The value is expired, but the next update only counts as a change
+     * if it differs.
+     *
+     * @param x the value
+     */
+    void restore(int x) {
+        snapshot.compareAndSet(null, new Snapshot(x, 0));
+    }
+
+    /**
+     * Returns the cached value at once, even if it is expired. An expired
+     * value is read again in background.
+     *
+     * @param executor runs the refresh
+     * @param listener notified with the new value, if the refresh found a
+     * change
+     * @return the cached value, or null if no value is known yet
+     */
+    Integer getStale(Executor executor, final VariableListener listener) {
+        Snapshot current = snapshot.get();
+        if (current == null) {
+            return null;
+        }
+        if (isExpired()) {
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        if (hasChanged()) {
+                            listener.valueChanged(var, getValue());
+                        }
+                    } catch (IOException | TelegramException ex) {
+                        log.error("Error refreshing '" + varname + "'", ex);
+                    }
+                }
+            });
+        }
+        return current.value;
+    }
+
     public int getValue() {
-        return value;
+        Snapshot current = snapshot.get();
+        return current == null ? 0 : current.value;
     }
 
     int forcedGet() throws IOException, TelegramException {
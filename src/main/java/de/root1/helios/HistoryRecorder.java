@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically appends the cached values of some variables to a
+ * {@link HistoryStore}. Only values that have been read or seen on the bus
+ * anyway are recorded, the recorder itself never accesses the bus.
+ *
+ * @author achristian
+ */
+class HistoryRecorder implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(HistoryRecorder.class);
+
+    // shared by all instances in this JVM
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "HeliosHistory");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final HistoryStore store;
+    private final long interval;
+    private final long maxage;
+    // unit and variable index per column of the store
+    private final HeliosUnit[] units;
+    private final int[] indexes;
+    private final int[] values;
+    private ScheduledFuture<?> future;
+
+    /**
+     * @param h the bus
+     * @param columns variables to record, <code>&lt;variable&gt;</code> for
+     * unit 1 or <code>&lt;unit&gt;.&lt;variable&gt;</code>
+     * @param store the store, must have the given columns
+     * @param interval time between two samples in ms
+     * @param maxage values of the register cache older than this are recorded
+     * as missing
+     * @throws IllegalArgumentException if a column does not name a variable
+     */
+    HistoryRecorder(Helios h, List<String> columns, HistoryStore store, long interval, long maxage) {
+        this.store = store;
+        this.interval = interval;
+        this.maxage = maxage;
+        units = new HeliosUnit[columns.size()];
+        indexes = new int[columns.size()];
+        values = new int[columns.size()];
+        for (int i = 0; i < units.length; i++) {
+            String column = columns.get(i);
+            int dot = column.indexOf('.');
+            try {
+                units[i] = h.getUnit(dot == -1 ? 1 : Integer.parseInt(column.substring(0, dot)));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Invalid unit in history column '" + column + "'");
+            }
+            indexes[i] = h.lookupVariable(column.substring(dot + 1)).index;
+        }
+    }
+
+    /**
+     * Parses the columns of the store
+     *
+     * @param property comma separated list of variables
+     * @return the columns
+     */
+    static List<String> parseColumns(String property) {
+        List<String> columns = new ArrayList<>();
+        for (String column : property.split(",")) {
+            if (!column.trim().isEmpty()) {
+                columns.add(column.trim());
+            }
+        }
+        return columns;
+    }
+
+    synchronized void start() {
+        if (future == null) {
+            log.info("Recording history of {} variables every {}ms", units.length, interval);
+            future = executor.scheduleAtFixedRate(this, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    synchronized void stop() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+            store.flush();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            for (int i = 0; i < units.length; i++) {
+                Integer value = units[i].getCachedValue(indexes[i], maxage);
+                values[i] = value == null ? HistoryStore.MISSING : value;
+            }
+            store.append(System.currentTimeMillis(), values);
+        } catch (RuntimeException ex) {
+            // keep recording
+            log.error("Error recording history", ex);
+        }
+    }
+
+}
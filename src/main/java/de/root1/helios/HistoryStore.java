@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores samples of some variables in a memory-mapped file of fixed size.
+ * The file holds three rings of fixed-size records: the samples themselves,
+ * and aggregates (min, max, mean) per minute and per hour. Within a ring,
+ * the values are stored column by column: one column with the timestamps of
+ * all records, then one column per variable and field. When a ring is full,
+ * the oldest records are overwritten.
+ * <p>
+ * The aggregate of a minute or hour is written as soon as the first sample of
+ * the next one arrives. Samples of a minute or hour not yet finished when the
+ * store is closed are lost.
+ *
+ * @author achristian
+ */
+public class HistoryStore {
+
+    private static final Logger log = LoggerFactory.getLogger(HistoryStore.class);
+
+    /**
+     * Stored in place of a value that is not known
+     */
+    public static final int MISSING = Short.MIN_VALUE;
+
+    public enum Resolution {
+
+        SAMPLE(0), MINUTE(60 * 1000), HOUR(60 * 60 * 1000);
+
+        private final long period;
+
+        private Resolution(long period) {
+            this.period = period;
+        }
+    }
+
+    /**
+     * Values of one variable in a time range. For samples, min, max and mean
+     * are the same value.
+     */
+    public static class Series {
+
+        public final long[] times;
+        public final int[] min;
+        public final int[] max;
+        public final float[] mean;
+
+        Series(int size) {
+            times = new long[size];
+            min = new int[size];
+            max = new int[size];
+            mean = new float[size];
+        }
+
+        Series(Series series, int size) {
+            times = Arrays.copyOf(series.times, size);
+            min = Arrays.copyOf(series.min, size);
+            max = Arrays.copyOf(series.max, size);
+            mean = Arrays.copyOf(series.mean, size);
+        }
+
+        public int size() {
+            return times.length;
+        }
+    }
+
+    private static final int MAGIC = 0x48485354; // "HHST"
+    private static final int VERSION = 1;
+    private static final int NAME_LENGTH = 32;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * One ring of records
+     */
+    private class Ring {
+
+        final Resolution resolution;
+        final int capacity;
+        // position of the record counter in the header
+        final int counterOffset;
+        // start of the timestamp column, followed by the value columns
+        final int offset;
+        // number of records ever written
+        long count;
+
+        Ring(Resolution resolution, int capacity, int counterOffset, int offset) {
+            this.resolution = resolution;
+            this.capacity = capacity;
+            this.counterOffset = counterOffset;
+            this.offset = offset;
+        }
+
+        /**
+         * @return size of the ring in bytes
+         */
+        int size() {
+            return capacity * (8 + columns.length * (resolution == Resolution.SAMPLE ? 2 : 8));
+        }
+
+        private int timeOffset(int slot) {
+            return offset + slot * 8;
+        }
+
+        // samples: a short per value, aggregates: min and max as short, mean as float
+        private int minOffset(int column, int slot) {
+            return offset + capacity * 8 + column * capacity * 2 + slot * 2;
+        }
+
+        private int maxOffset(int column, int slot) {
+            return offset + capacity * (8 + columns.length * 2) + column * capacity * 2 + slot * 2;
+        }
+
+        private int meanOffset(int column, int slot) {
+            return offset + capacity * (8 + columns.length * 4) + column * capacity * 4 + slot * 4;
+        }
+
+        void writeSample(long time, int[] values) {
+            int slot = (int) (count % capacity);
+            buffer.putLong(timeOffset(slot), time);
+            for (int column = 0; column < columns.length; column++) {
+                buffer.putShort(minOffset(column, slot), toShort(values[column]));
+            }
+            commit();
+        }
+
+        void writeAggregate(Aggregate aggregate) {
+            int slot = (int) (count % capacity);
+            buffer.putLong(timeOffset(slot), aggregate.start);
+            for (int column = 0; column < columns.length; column++) {
+                boolean known = aggregate.count[column] > 0;
+                buffer.putShort(minOffset(column, slot), toShort(known ? aggregate.min[column] : MISSING));
+                buffer.putShort(maxOffset(column, slot), toShort(known ? aggregate.max[column] : MISSING));
+                buffer.putFloat(meanOffset(column, slot), known ? (float) aggregate.sum[column] / aggregate.count[column] : Float.NaN);
+            }
+            commit();
+        }
+
+        private void commit() {
+            count++;
+            buffer.putLong(counterOffset, count);
+        }
+
+        /**
+         * @param from index of the oldest record still available
+         * @return index of the first record not before the given time
+         */
+        private long search(long from, long time) {
+            long low = from;
+            long high = count;
+            while (low < high) {
+                long mid = (low + high) >>> 1;
+                if (buffer.getLong(timeOffset((int) (mid % capacity))) < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        Series query(int column, long from, long to) {
+            long oldest = Math.max(0, count - capacity);
+            long first = search(oldest, from);
+            long end = search(first, to);
+            Series series = new Series((int) (end - first));
+            int size = 0;
+            for (long i = first; i < end; i++) {
+                int slot = (int) (i % capacity);
+                short min = buffer.getShort(minOffset(column, slot));
+                if (min == MISSING) {
+                    continue;
+                }
+                series.times[size] = buffer.getLong(timeOffset(slot));
+                series.min[size] = min;
+                if (resolution == Resolution.SAMPLE) {
+                    series.max[size] = min;
+                    series.mean[size] = min;
+                } else {
+                    series.max[size] = buffer.getShort(maxOffset(column, slot));
+                    series.mean[size] = buffer.getFloat(meanOffset(column, slot));
+                }
+                size++;
+            }
+            return size == series.size() ? series : new Series(series, size);
+        }
+    }
+
+    /**
+     * Min, max and sum of the samples of the current minute or hour
+     */
+    private class Aggregate {
+
+        final Ring ring;
+        long start = -1;
+        final int[] min = new int[columns.length];
+        final int[] max = new int[columns.length];
+        final long[] sum = new long[columns.length];
+        final int[] count = new int[columns.length];
+
+        Aggregate(Ring ring) {
+            this.ring = ring;
+        }
+
+        void add(long time, int[] values) {
+            long period = time - time % ring.resolution.period;
+            if (period != start) {
+                if (start != -1) {
+                    ring.writeAggregate(this);
+                }
+                start = period;
+                Arrays.fill(count, 0);
+                Arrays.fill(sum, 0);
+            }
+            for (int column = 0; column < columns.length; column++) {
+                int value = values[column];
+                if (value == MISSING) {
+                    continue;
+                }
+                if (count[column] == 0) {
+                    min[column] = value;
+                    max[column] = value;
+                } else {
+                    min[column] = Math.min(min[column], value);
+                    max[column] = Math.max(max[column], value);
+                }
+                sum[column] += value;
+                count[column]++;
+            }
+        }
+    }
+
+    private final String[] columns;
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final Ring samples;
+    private final Aggregate minutes;
+    private final Aggregate hours;
+
+    /**
+     * Opens a store. If the file does not match the given columns and
+     * capacities, it is cleared.
+     *
+     * @param f the file
+     * @param columns names of the stored variables, max. 32 bytes each
+     * @param sampleCapacity number of samples to keep
+     * @param minuteCapacity number of minute aggregates to keep
+     * @param hourCapacity number of hour aggregates to keep
+     * @throws IOException if file cannot be opened
+     */
+    public HistoryStore(File f, List<String> columns, int sampleCapacity, int minuteCapacity, int hourCapacity) throws IOException {
+        this.columns = columns.toArray(new String[columns.size()]);
+        int headerSize = 16 + 3 * 16 + this.columns.length * NAME_LENGTH;
+        samples = new Ring(Resolution.SAMPLE, sampleCapacity, 24, headerSize);
+        Ring minuteRing = new Ring(Resolution.MINUTE, minuteCapacity, 40, samples.offset + samples.size());
+        Ring hourRing = new Ring(Resolution.HOUR, hourCapacity, 56, minuteRing.offset + minuteRing.size());
+        int size = hourRing.offset + hourRing.size();
+
+        file = new RandomAccessFile(f, "rw");
+        boolean valid = file.length() == size;
+        file.setLength(size);
+        buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+        Ring[] rings = new Ring[]{samples, minuteRing, hourRing};
+        byte[] header = createHeader(headerSize, rings);
+        for (int i = 0; i < header.length && valid; i++) {
+            // the record counters are not part of the comparison
+            valid = (i >= 16 && i < 64 && (i - 16) % 16 >= 8) || buffer.get(i) == header[i];
+        }
+        if (valid) {
+            for (Ring ring : rings) {
+                ring.count = buffer.getLong(ring.counterOffset);
+            }
+            log.info("Opened history {} with {} samples", f.getAbsolutePath(), Math.min(samples.count, samples.capacity));
+        } else {
+            log.info("Creating new history {} for {}", f.getAbsolutePath(), columns);
+            for (int i = 0; i < header.length; i++) {
+                buffer.put(i, header[i]);
+            }
+        }
+        minutes = new Aggregate(minuteRing);
+        hours = new Aggregate(hourRing);
+    }
+
+    private byte[] createHeader(int headerSize, Ring[] rings) {
+        ByteBuffer header = ByteBuffer.allocate(headerSize);
+        header.putInt(MAGIC).putInt(VERSION).putInt(columns.length).putInt(0);
+        for (Ring ring : rings) {
+            header.putInt(ring.capacity).putInt(0).putLong(0);
+        }
+        for (String column : columns) {
+            byte[] name = column.getBytes(UTF8);
+            if (name.length > NAME_LENGTH) {
+                throw new IllegalArgumentException("Column name '" + column + "' too long");
+            }
+            header.put(Arrays.copyOf(name, NAME_LENGTH));
+        }
+        return header.array();
+    }
+
+    private static short toShort(int value) {
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+    }
+
+    /**
+     * @return names of the stored variables
+     */
+    public List<String> getColumns() {
+        return Arrays.asList(columns);
+    }
+
+    /**
+     * Appends a sample of all variables
+     *
+     * @param time time of sample in ms, must not be before the previous sample
+     * @param values a value per column, {@link #MISSING} if not known
+     */
+    public synchronized void append(long time, int[] values) {
+        if (values.length != columns.length) {
+            throw new IllegalArgumentException("Expected " + columns.length + " values, got " + values.length);
+        }
+        minutes.add(time, values);
+        hours.add(time, values);
+        samples.writeSample(time, values);
+    }
+
+    /**
+     * Returns the known values of a variable in a time range
+     *
+     * @param column name of variable
+     * @param resolution samples, or minute or hour aggregates
+     * @param from start of range in ms, inclusive
+     * @param to end of range in ms, exclusive
+     * @return the values, oldest first
+     * @throws IllegalArgumentException if column is unknown
+     */
+    public synchronized Series query(String column, Resolution resolution, long from, long to) {
+        int index = Arrays.asList(columns).indexOf(column);
+        if (index == -1) {
+            throw new IllegalArgumentException("Column '" + column + "' unknown.");
+        }
+        switch (resolution) {
+            case MINUTE:
+                return minutes.ring.query(index, from, to);
+            case HOUR:
+                return hours.ring.query(index, from, to);
+            default:
+                return samples.query(index, from, to);
+        }
+    }
+
+    /**
+     * Writes changes to disk
+     */
+    public synchronized void flush() {
+        buffer.force();
+    }
+
+    public synchronized void close() throws IOException {
+        buffer.force();
+        file.close();
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves the bus metrics as plain text on <code>http://&lt;host&gt;:&lt;port&gt;/metrics</code>
+ *
+ * @author achristian
+ */
+class MetricsHttpServer {
+
+    private static final Logger log = LoggerFactory.getLogger(MetricsHttpServer.class);
+
+    private final HttpServer server;
+
+    /**
+     * @param port tcp port to listen on
+     * @param metrics the metrics to serve
+     * @throws IOException if port cannot be opened
+     */
+    MetricsHttpServer(int port, final BusMetrics metrics) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = metrics.getReport().getBytes(Charset.forName("UTF-8"));
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+    }
+
+    void start() {
+        server.start();
+        log.info("Serving metrics on port {}", server.getAddress().getPort());
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Polls variables of a ventilation unit with an individual interval per
+ * variable. If the value of a
+ * variable does not change, its interval is doubled with each poll, up to a
+ * maximum. A change, a write or a read request brings the interval back to its
+ * configured value.
+ *
+ * @author achristian
+ */
+class PollScheduler implements Runnable, VariableListener {
+
+    private static final Logger log = LoggerFactory.getLogger(PollScheduler.class);
+
+    private class Entry {
+
+        final String varname;
+        final int index;
+        final long baseInterval;
+        long interval;
+        long nextPoll;
+        Integer lastValue;
+
+        Entry(String varname, int index, long baseInterval) {
+            this.varname = varname;
+            this.index = index;
+            this.baseInterval = baseInterval;
+            this.interval = baseInterval;
+        }
+    }
+
+    private final HeliosUnit unit;
+    private final List<Entry> entries = new ArrayList<>();
+    // entries by variable index, null if variable is not polled
+    private final Entry[] entryByIndex;
+    private final long maxInterval;
+
+    /**
+     * @param unit ventilation unit to poll
+     * @param intervals variables to poll with their configured interval in ms
+     * @param maxInterval the interval of unchanged variables is not increased
+     * beyond this value
+     */
+    PollScheduler(HeliosUnit unit, Map<String, Long> intervals, long maxInterval) {
+        this.unit = unit;
+        Helios h = unit.getHelios();
+        this.maxInterval = maxInterval;
+        this.entryByIndex = new Entry[h.getVariableCount()];
+        for (Map.Entry<String, Long> interval : intervals.entrySet()) {
+            int index = h.getVariableIndex(interval.getKey());
+            if (index == -1) {
+                log.warn("Variable '{}' unknown, not polling it.", interval.getKey());
+                continue;
+            }
+            Entry entry = new Entry(interval.getKey(), index, interval.getValue());
+            entries.add(entry);
+            entryByIndex[index] = entry;
+        }
+    }
+
+    HeliosUnit getUnit() {
+        return unit;
+    }
+
+    /**
+     * Polls the given variable again soon, with its configured interval
+     *
+     * @param index index of variable
+     */
+    synchronized void touch(int index) {
+        Entry entry = entryByIndex[index];
+        if (entry != null && entry.interval != entry.baseInterval) {
+            log.debug("Resetting poll interval of '{}' to {}ms", entry.varname, entry.baseInterval);
+            entry.interval = entry.baseInterval;
+            entry.nextPoll = Math.min(entry.nextPoll, System.currentTimeMillis() + entry.baseInterval);
+            notifyAll();
+        }
+    }
+
+    /**
+     * @param index index of variable
+     * @return current poll interval of the variable in ms, -1 if it is not
+     * polled
+     */
+    synchronized long getInterval(int index) {
+        Entry entry = entryByIndex[index];
+        return entry == null ? -1 : entry.interval;
+    }
+
+    @Override
+    public void valueChanged(Variable variable, int value) {
+        touch(variable.index);
+    }
+
+    @Override
+    public void run() {
+        for (Entry entry : entries) {
+            unit.addVariableListener(entry.index, this);
+        }
+        try {
+            poll();
+        } finally {
+            for (Entry entry : entries) {
+                unit.removeVariableListener(entry.varname, this);
+            }
+        }
+    }
+
+    private void poll() {
+        while (!Thread.currentThread().isInterrupted()) {
+            List<Entry> due = new ArrayList<>();
+            List<String> toRead = new ArrayList<>();
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                for (Entry entry : entries) {
+                    if (entry.nextPoll <= now) {
+                        due.add(entry);
+                        // no need to read what has just been seen on the bus
+                        if (unit.getCachedValue(entry.index, entry.baseInterval) == null) {
+                            toRead.add(entry.varname);
+                        }
+                    }
+                }
+            }
+
+            Map<String, Integer> values = new HashMap<>();
+            if (!toRead.isEmpty()) {
+                try {
+                    values = unit.readValues(toRead);
+                } catch (IOException ex) {
+                    log.error("Error reading variables " + toRead + " of " + unit, ex);
+                }
+            }
+
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                for (Entry entry : due) {
+                    Integer value = values.get(entry.varname);
+                    if (value == null) {
+                        value = unit.getCachedValue(entry.index, entry.baseInterval);
+                    }
+                    if (value == null) {
+                        // reading failed, try again with configured interval
+                        entry.interval = entry.baseInterval;
+                    } else if (value.equals(entry.lastValue)) {
+                        entry.interval = Math.max(entry.baseInterval, Math.min(entry.interval * 2, maxInterval));
+                    } else {
+                        entry.interval = entry.baseInterval;
+                        entry.lastValue = value;
+                    }
+                    entry.nextPoll = now + entry.interval;
+                    log.trace("Next poll of '{}' of {} in {}ms", new Object[]{entry.varname, unit, entry.interval});
+                }
+
+                long nextPoll = Long.MAX_VALUE;
+                for (Entry entry : entries) {
+                    nextPoll = Math.min(nextPoll, entry.nextPoll);
+                }
+                long sleep = nextPoll - System.currentTimeMillis();
+                if (sleep > 0) {
+                    try {
+                        wait(sleep);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+/**
+ * Ring buffer of the bytes received from the bus, together with their time of
+ * arrival. Bytes are addressed by their position in the stream of all bytes
+ * received so far. Only the last {@link #getCapacity()} bytes are available.
+ * <p>
+ * The buffer is filled and read by the bus reader thread. Only the time of the
+ * last received byte may be read by other threads.
+ *
+ * @author achristian
+ */
+class ReceiveBuffer {
+
+    private final byte[] data;
+    private final long[] times;
+    private final int mask;
+    private long count;
+    private volatile long lastTime;
+
+    /**
+     * @param capacity number of bytes to keep, must be a power of two
+     */
+    ReceiveBuffer(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        data = new byte[capacity];
+        times = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Appends a received byte
+     *
+     * @param b the byte
+     * @param time time of arrival in ms
+     */
+    void put(byte b, long time) {
+        int i = (int) (count & mask);
+        data[i] = b;
+        times[i] = time;
+        count++;
+        lastTime = time;
+    }
+
+    /**
+     * @param position position in stream, must be in range
+     * [count-capacity..count-1]
+     * @return the byte at the given position
+     */
+    byte get(long position) {
+        return data[(int) (position & mask)];
+    }
+
+    /**
+     * @param position position in stream, must be in range
+     * [count-capacity..count-1]
+     * @return time of arrival of the byte at the given position in ms
+     */
+    long getTime(long position) {
+        return times[(int) (position & mask)];
+    }
+
+    /**
+     * @return number of bytes received so far
+     */
+    long getCount() {
+        return count;
+    }
+
+    int getCapacity() {
+        return data.length;
+    }
+
+    /**
+     * @return time of arrival of the last received byte in ms, 0 if nothing
+     * has been received yet
+     */
+    long getLastTime() {
+        return lastTime;
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+/**
+ * Holds the last known raw value of each register (varid) of a ventilation
+ * unit, together with the time it was seen on the bus.
+ *
+ * @author achristian
+ */
+class RegisterImage {
+
+    private final byte[] values = new byte[256];
+    private final long[] timestamps = new long[256]; // 0 = never seen
+
+    /**
+     * Stores a raw register value
+     *
+     * @param varid register address
+     * @param value raw value
+     * @return the previous raw value in range [0..255], or -1 if the register
+     * value was unknown before
+     */
+    synchronized int update(byte varid, byte value) {
+        int previous = timestamps[varid & 0xFF] == 0 ? -1 : values[varid & 0xFF] & 0xFF;
+        values[varid & 0xFF] = value;
+        timestamps[varid & 0xFF] = System.currentTimeMillis();
+        return previous;
+    }
+
+    /**
+     * Returns the raw value of a register, if it is not older than
+     * <code>maxage</code>
+     *
+     * @param varid register address
+     * @param maxage maximum age of the value in ms
+     * @return raw value in range [0..255], or -1 if register value is unknown
+     * or too old
+     */
+    synchronized int get(byte varid, long maxage) {
+        long timestamp = timestamps[varid & 0xFF];
+        if (timestamp == 0 || System.currentTimeMillis() - timestamp > maxage) {
+            return -1;
+        }
+        return values[varid & 0xFF] & 0xFF;
+    }
+
+    /**
+     * @param varid register address
+     * @return time the register value has been seen on the bus, 0 if unknown
+     */
+    synchronized long getTimestamp(byte varid) {
+        return timestamps[varid & 0xFF];
+    }
+
+    /**
+     * Sets a register value that has been seen before, e.g. in a previous run.
+     * Unlike {@link #update(byte, byte)}, values already known are kept.
+     *
+     * @param varid register address
+     * @param value raw value
+     * @param timestamp time the value has been seen on the bus
+     * @return true, if the value has been set
+     */
+    synchronized boolean restore(byte varid, byte value, long timestamp) {
+        if (timestamps[varid & 0xFF] != 0 || timestamp <= 0) {
+            return false;
+        }
+        values[varid & 0xFF] = value;
+        timestamps[varid & 0xFF] = timestamp;
+        return true;
+    }
+
+    /**
+     * Copies all register values, regardless of their age
+     *
+     * @param values receives the raw values, indexed by register address
+     * @param timestamps receives the time each value has been seen, 0 if
+     * unknown
+     */
+    synchronized void copyTo(byte[] values, long[] timestamps) {
+        System.arraycopy(this.values, 0, values, 0, 256);
+        System.arraycopy(this.timestamps, 0, timestamps, 0, 256);
+    }
+
+}
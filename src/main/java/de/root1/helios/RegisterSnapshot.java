@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Saves the register images of all units of a bus to a file, and loads them
+ * after a restart. Loaded values keep the time they have been seen on the bus,
+ * so they are refreshed like any other old value, but changes are only
+ * reported if the new value differs from the one before the restart.
+ *
+ * @author achristian
+ */
+class RegisterSnapshot implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(RegisterSnapshot.class);
+
+    private static final int MAGIC = 0x48525347; // "HRSG"
+    private static final int VERSION = 1;
+
+    // shared by all instances in this JVM
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "HeliosRegisterSnapshot");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final Helios h;
+    private final File file;
+    private final long interval;
+    private ScheduledFuture<?> future;
+
+    /**
+     * @param h the bus
+     * @param file the snapshot file
+     * @param interval time between two saves in ms while started
+     */
+    RegisterSnapshot(Helios h, File file, long interval) {
+        this.h = h;
+        this.file = file;
+        this.interval = interval;
+    }
+
+    /**
+     * Loads the snapshot into the register images of the units in use. Units
+     * not in use are skipped. Registers already known are kept.
+     *
+     * @return number of registers loaded, 0 if there is no snapshot
+     * @throws IOException if the file cannot be read
+     */
+    int load() throws IOException {
+        int loaded = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.warn("Ignoring register snapshot {} of unknown format", file.getAbsolutePath());
+                return 0;
+            }
+            int unitCount = in.readUnsignedByte();
+            for (int i = 0; i < unitCount; i++) {
+                int number = in.readUnsignedByte();
+                int count = in.readUnsignedShort();
+                HeliosUnit unit = null;
+                for (HeliosUnit candidate : h.getUnits()) {
+                    if (candidate.getNumber() == number) {
+                        unit = candidate;
+                    }
+                }
+                for (int j = 0; j < count; j++) {
+                    byte varid = in.readByte();
+                    byte value = in.readByte();
+                    long timestamp = in.readLong();
+                    if (unit != null && unit.registerImage.restore(varid, value, timestamp)) {
+                        loaded++;
+                    }
+                }
+            }
+        } catch (FileNotFoundException ex) {
+            log.info("No register snapshot {}, starting with empty cache", file.getAbsolutePath());
+            return 0;
+        } catch (EOFException ex) {
+            log.warn("Register snapshot {} is truncated, loaded {} registers", file.getAbsolutePath(), loaded);
+        }
+        log.info("Loaded {} registers from {}", loaded, file.getAbsolutePath());
+        return loaded;
+    }
+
+    /**
+     * Saves the register images of all units in use. The new snapshot is
+     * written to disk before it replaces the old one at once, so a crash or
+     * power loss while saving leaves the previous snapshot.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    synchronized void save() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        byte[] values = new byte[256];
+        long[] timestamps = new long[256];
+        FileOutputStream stream = new FileOutputStream(tmp);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeByte(h.getUnits().size());
+            for (HeliosUnit unit : h.getUnits()) {
+                unit.registerImage.copyTo(values, timestamps);
+                int count = 0;
+                for (long timestamp : timestamps) {
+                    if (timestamp != 0) {
+                        count++;
+                    }
+                }
+                out.writeByte(unit.getNumber());
+                out.writeShort(count);
+                for (int varid = 0; varid < 256; varid++) {
+                    if (timestamps[varid] != 0) {
+                        out.writeByte(varid);
+                        out.writeByte(values[varid]);
+                        out.writeLong(timestamps[varid]);
+                    }
+                }
+            }
+            // the data must be on disk before the rename is
+            out.flush();
+            stream.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.debug("Saved register snapshot to {}", file.getAbsolutePath());
+    }
+
+    synchronized void start() {
+        if (future == null) {
+            future = executor.scheduleWithFixedDelay(this, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops saving periodically and saves a last time
+     */
+    synchronized void stop() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+        run();
+    }
+
+    @Override
+    public void run() {
+        try {
+            save();
+        } catch (IOException ex) {
+            log.error("Error saving register snapshot to " + file.getAbsolutePath(), ex);
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Direct connection to the RS485 bus via a serial device file, e.g. an USB
+ * RS485 adapter on <code>/dev/ttyUSB0</code>. The line settings are applied
+ * with <code>stty</code>, as Java has no standard API for serial ports.
+ * <p>
+ * If the line is configured, reads block with a timeout of 100ms set via
+ * <code>stty</code> (VMIN=0, VTIME=1). Otherwise the device is polled, less
+ * often the longer the bus is idle.
+ *
+ * @author achristian
+ */
+class SerialTransport implements Transport {
+
+    private static final Logger log = LoggerFactory.getLogger(SerialTransport.class);
+
+    private final String device;
+    private final String sttySettings;
+    private final ReceiveBuffer receiveBuffer = new ReceiveBuffer(1024);
+    private final byte[] readBuffer = new byte[128];
+    // max. poll interval in ms if the line is not configured
+    private static final long MAX_POLL_INTERVAL = 20;
+    private long pollInterval = 1;
+    private volatile InputStream in;
+    private volatile OutputStream out;
+
+    /**
+     * @param device the serial device file
+     * @param sttySettings settings passed to <code>stty</code> on connect, e.g.
+     * "9600 raw -echo", or null to keep the current line settings
+     */
+    SerialTransport(String device, String sttySettings) {
+        this.device = device;
+        this.sttySettings = sttySettings;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (sttySettings != null) {
+            configureLine();
+        }
+        in = new FileInputStream(device);
+        out = new FileOutputStream(device);
+    }
+
+    private void configureLine() throws IOException {
+        // read() returns after at most 100ms, even without data
+        String command = "stty -F " + device + " " + sttySettings + " min 0 time 1";
+        log.debug("Configuring serial line: {}", command);
+        try {
+            Process p = new ProcessBuilder(command.split("\\s+")).redirectErrorStream(true).start();
+            if (p.waitFor() != 0) {
+                log.warn("'{}' failed with exit code {}", command, p.exitValue());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while configuring serial line", ex);
+        }
+    }
+
+    @Override
+    public void disconnect() throws IOException {
+        InputStream i = in;
+        OutputStream o = out;
+        in = null;
+        out = null;
+        if (i != null) {
+            i.close();
+        }
+        if (o != null) {
+            o.close();
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return in != null;
+    }
+
+    @Override
+    public void send(byte[] data) throws IOException {
+        out.write(data);
+        out.flush();
+    }
+
+    @Override
+    public int receive(long timeout) throws IOException {
+        InputStream i = in;
+        if (i == null) {
+            throw new IOException("Not connected");
+        }
+        long end = System.currentTimeMillis() + timeout;
+        int count;
+        if (sttySettings != null) {
+            // blocks until data arrives or VTIME elapses, which looks like EOF
+            while ((count = i.read(readBuffer)) <= 0) {
+                if (System.currentTimeMillis() >= end || Thread.currentThread().isInterrupted()) {
+                    return 0;
+                }
+            }
+        } else {
+            // a blocking read on an unconfigured tty may never return, so poll
+            int available;
+            while ((available = i.available()) == 0) {
+                if (System.currentTimeMillis() >= end) {
+                    return 0;
+                }
+                try {
+                    Thread.sleep(pollInterval);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return 0;
+                }
+                pollInterval = Math.min(pollInterval * 2, MAX_POLL_INTERVAL);
+            }
+            pollInterval = 1;
+            count = i.read(readBuffer, 0, Math.min(available, readBuffer.length));
+        }
+        long time = System.currentTimeMillis();
+        for (int n = 0; n < count; n++) {
+            receiveBuffer.put(readBuffer[n], time);
+        }
+        return Math.max(count, 0);
+    }
+
+    @Override
+    public ReceiveBuffer getReceiveBuffer() {
+        return receiveBuffer;
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Connection to a RS485-over-TCP gateway, based on a non-blocking
+ * {@link SocketChannel}. Received bytes are stored with their time of arrival
+ * in a {@link ReceiveBuffer}.
+ *
+ * @author achristian
+ */
+class TcpTransport implements Transport {
+
+    private final String host;
+    private final int port;
+    private final ReceiveBuffer receiveBuffer = new ReceiveBuffer(1024);
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(128);
+    // replaced on connect, while the previous bus reader may still stop
+    private volatile SocketChannel channel;
+    private volatile Selector selector;
+
+    TcpTransport(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        SocketChannel c = SocketChannel.open(new InetSocketAddress(host, port));
+        c.socket().setTcpNoDelay(true);
+        c.configureBlocking(false);
+        Selector s = Selector.open();
+        c.register(s, SelectionKey.OP_READ);
+        channel = c;
+        selector = s;
+    }
+
+    @Override
+    public void disconnect() throws IOException {
+        if (selector != null) {
+            selector.close();
+        }
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return channel != null && channel.isConnected();
+    }
+
+    @Override
+    public void send(byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            if (channel.write(buffer) == 0) {
+                // socket buffer full, which is unlikely for a few bytes
+                Thread.yield();
+            }
+        }
+    }
+
+    @Override
+    public int receive(long timeout) throws IOException {
+        Selector s = selector;
+        if (s.select(timeout) == 0) {
+            return 0;
+        }
+        s.selectedKeys().clear();
+        readBuffer.clear();
+        // the channel of this selector, even if a newer connection exists
+        int count = ((SocketChannel) s.keys().iterator().next().channel()).read(readBuffer);
+        if (count == -1) {
+            throw new EOFException("Connection closed by remote side");
+        }
+        long time = System.currentTimeMillis();
+        readBuffer.flip();
+        while (readBuffer.hasRemaining()) {
+            receiveBuffer.put(readBuffer.get(), time);
+        }
+        return count;
+    }
+
+    @Override
+    public ReceiveBuffer getReceiveBuffer() {
+        return receiveBuffer;
+    }
+
+}
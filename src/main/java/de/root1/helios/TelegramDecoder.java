@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds telegrams in a stream of received bytes. A telegram is recognized by
+ * its start byte 0x01 and a valid CRC over its first five bytes. The decoder
+ * keeps only the last five bytes in a ring, together with their running sum,
+ * so checking a byte costs a constant number of operations and allocates
+ * nothing. Only a decoded telegram is copied into a new array.
+ *
+ * @author achristian
+ */
+class TelegramDecoder {
+
+    private static final Logger log = LoggerFactory.getLogger(TelegramDecoder.class);
+
+    static final int TELEGRAM_LENGTH = 6;
+    private static final int HISTORY = TELEGRAM_LENGTH - 1;
+
+    /**
+     * Receives decoded telegrams
+     */
+    interface Listener {
+
+        /**
+         * @param telegram the telegram, owned by the listener
+         * @param skipped number of bytes received since the previous telegram
+         * that are not part of this telegram
+         */
+        void telegramDecoded(byte[] telegram, int skipped);
+    }
+
+    private final Listener listener;
+    private final long maxSpan;
+
+    // last five bytes before the current one
+    private final byte[] bytes = new byte[HISTORY];
+    private final long[] times = new long[HISTORY];
+    // next index to write to, which is the oldest byte if history is full
+    private int index;
+    private int count;
+    // sum of the bytes in history
+    private int sum;
+    // bytes received since the last telegram, including the current one
+    private int sinceTelegram;
+
+    /**
+     * @param listener receives decoded telegrams
+     * @param maxSpan max. time in ms between first and last byte of a telegram
+     */
+    TelegramDecoder(Listener listener, long maxSpan) {
+        this.listener = listener;
+        this.maxSpan = maxSpan;
+    }
+
+    /**
+     * Checks the next received byte
+     *
+     * @param b the byte
+     * @param time time of arrival in ms
+     */
+    void put(byte b, long time) {
+        if (sinceTelegram < Integer.MAX_VALUE) {
+            sinceTelegram++;
+        }
+        if (count == HISTORY) {
+            // Telegrams always start with a 0x01, is the CRC valid?, ...
+            if (bytes[index] == 0x01 && b == (byte) sum && time - times[index] <= maxSpan) {
+                emit(b);
+            }
+            sum -= bytes[index];
+        } else {
+            count++;
+        }
+        bytes[index] = b;
+        times[index] = time;
+        sum += b;
+        index = index == HISTORY - 1 ? 0 : index + 1;
+    }
+
+    /**
+     * Checks a range of received bytes
+     *
+     * @param buffer the receive buffer
+     * @param from position of first byte to check
+     * @param to position after the last byte to check
+     */
+    void decode(ReceiveBuffer buffer, long from, long to) {
+        if (log.isTraceEnabled()) {
+            for (long position = from; position < to; position++) {
+                log.trace("read: {}", String.format("%02x(hex)", buffer.get(position)));
+            }
+        }
+        for (long position = from; position < to; position++) {
+            put(buffer.get(position), buffer.getTime(position));
+        }
+    }
+
+    /**
+     * Forgets the bytes received so far, e.g. after bytes have been lost
+     */
+    void reset() {
+        index = 0;
+        count = 0;
+        sum = 0;
+        sinceTelegram = 0;
+    }
+
+    private void emit(byte crc) {
+        byte[] telegram = new byte[TELEGRAM_LENGTH];
+        for (int i = 0; i < HISTORY; i++) {
+            telegram[i] = bytes[(index + i) % HISTORY];
+        }
+        telegram[HISTORY] = crc;
+        if (log.isTraceEnabled()) {
+            log.trace("Telegram received [{}]", String.format("%02x %02x %02x %02x %02x %02x",
+                    telegram[0], telegram[1], telegram[2], telegram[3], telegram[4], telegram[5]));
+        }
+        int skipped = Math.max(0, sinceTelegram - TELEGRAM_LENGTH);
+        sinceTelegram = 0;
+        listener.telegramDecoded(telegram, skipped);
+    }
+
+}
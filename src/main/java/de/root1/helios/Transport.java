@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import java.io.IOException;
+
+/**
+ * Byte level access to the RS485 bus. Telegram framing and detection of bus
+ * silence is done by {@link Helios}, based on the bytes and arrival times in
+ * the {@link ReceiveBuffer}.
+ *
+ * @author achristian
+ */
+interface Transport {
+
+    /**
+     * Opens the connection. May be called again after {@link #disconnect()}.
+     *
+     * @throws IOException if connection cannot be established
+     */
+    void connect() throws IOException;
+
+    void disconnect() throws IOException;
+
+    boolean isConnected();
+
+    /**
+     * Sends the given bytes
+     *
+     * @param data bytes to send
+     * @throws IOException in case of problems with the connection
+     */
+    void send(byte[] data) throws IOException;
+
+    /**
+     * Waits for bytes from the bus and stores them in the receive buffer. Is
+     * only called by the bus reader thread.
+     *
+     * @param timeout max. time to wait in ms
+     * @return number of bytes received, 0 if the timeout elapsed
+     * @throws IOException in case of problems with the connection
+     */
+    int receive(long timeout) throws IOException;
+
+    /**
+     * @return buffer with all received bytes and their time of arrival
+     */
+    ReceiveBuffer getReceiveBuffer();
+
+}
@@ -19,6 +19,9 @@
 package de.root1.helios;
 
 /**
+ * Definition of a Helios variable. The conversion between raw register value
+ * and the value of the variable is resolved into lookup tables when the
+ * variable is created, so converting is a single array access.
  *
  * @author achristian
  */
@@ -31,6 +34,21 @@ public class Variable {
     int bitposition;
     boolean read;
     boolean write;
+    // position in the variable registry of the Helios instance
+    int index = -1;
+
+    // marks raw values without a valid value
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+
+    private static final int[] FANSPEED_RAW = {0x01, 0x03, 0x07, 0x0F, 0x1F, 0x3F, 0x7F, 0xFF};
+
+    private static final int TEMPERATURE_MIN = Helios.CONST_TEMPERATURE[0];
+    private static final int TEMPERATURE_MAX = Helios.CONST_TEMPERATURE[Helios.CONST_TEMPERATURE.length - 1];
+    // temperature - TEMPERATURE_MIN --> raw value
+    private static final int[] TEMPERATURE_RAW = createTemperatureRawTable();
+
+    // raw value (unsigned) --> value
+    private final int[] values;
 
     public Variable(String name, byte varid, Type type, int bitposition, boolean read, boolean write) {
         this.name = name;
@@ -39,8 +57,105 @@ public class Variable {
         this.bitposition = bitposition;
         this.read = read;
         this.write = write;
+        this.values = createValueTable(type, bitposition);
+    }
+
+    private static int[] createValueTable(Type type, int bitposition) {
+        int[] table = new int[256];
+        for (int i = 0; i < table.length; i++) {
+            byte rawvalue = (byte) i;
+            switch (type) {
+                case temperature:
+                    table[i] = Helios.CONST_TEMPERATURE[i];
+                    break;
+                case fanspeed:
+                    table[i] = UNKNOWN;
+                    break;
+                case bit:
+                    table[i] = rawvalue >> bitposition & 0x01;
+                    break;
+                case dec:
+                case percent:
+                    table[i] = rawvalue;
+                    break;
+            }
+        }
+        if (type == Type.fanspeed) {
+            for (int speed = 1; speed <= FANSPEED_RAW.length; speed++) {
+                table[FANSPEED_RAW[speed - 1]] = speed;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Maps each temperature to the raw value in the middle of all raw values
+     * with that temperature. Temperatures not in the table are mapped to the
+     * nearest one.
+     */
+    private static int[] createTemperatureRawTable() {
+        int[] temperatures = Helios.CONST_TEMPERATURE;
+        int[] table = new int[TEMPERATURE_MAX - TEMPERATURE_MIN + 1];
+        for (int t = TEMPERATURE_MIN; t <= TEMPERATURE_MAX; t++) {
+            // table is sorted, find first raw value with the nearest temperature
+            int nearest = 0;
+            for (int raw = 1; raw < temperatures.length; raw++) {
+                if (Math.abs(temperatures[raw] - t) < Math.abs(temperatures[nearest] - t)) {
+                    nearest = raw;
+                }
+            }
+            int last = nearest;
+            while (last + 1 < temperatures.length && temperatures[last + 1] == temperatures[nearest]) {
+                last++;
+            }
+            table[t - TEMPERATURE_MIN] = (nearest + last) / 2;
+        }
+        return table;
+    }
+
+    /**
+     * Converts a raw register value to the value of this variable
+     *
+     * @param rawvalue raw value
+     * @return the value
+     * @throws IllegalArgumentException if raw value has no valid value
+     */
+    int toValue(byte rawvalue) throws IllegalArgumentException {
+        int value = values[rawvalue & 0xFF];
+        if (value == UNKNOWN) {
+            throw new IllegalArgumentException("raw value '" + rawvalue + "(dec)'/'" + String.format("%02x", rawvalue) + "(hex)' not known for " + type + ".");
+        }
+        return value;
+    }
+
+    /**
+     * Converts a value of this variable to the raw register value
+     *
+     * @param value the value
+     * @param prevvalue current raw value, required for bit-variables, otherwise
+     * ignored
+     * @return the raw value
+     * @throws IllegalArgumentException if value is not valid
+     */
+    int toRaw(int value, byte prevvalue) throws IllegalArgumentException {
+        switch (type) {
+            case temperature:
+                int t = Math.max(TEMPERATURE_MIN, Math.min(TEMPERATURE_MAX, value));
+                return TEMPERATURE_RAW[t - TEMPERATURE_MIN];
+            case fanspeed:
+                if (value < 1 || value > FANSPEED_RAW.length) {
+                    throw new IllegalArgumentException("Illegal fanspeed detected: " + value + ". Must be in range [1..8].");
+                }
+                return FANSPEED_RAW[value - 1];
+            case bit:
+                if (value == 1) { // On, True, 1
+                    return prevvalue | (1 << bitposition);
+                }
+                // everything else is mapped to OFF/False/0
+                return prevvalue & ~(1 << bitposition);
+            default:
+                return value;
+        }
     }
-    
-    
     
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Merges bursts of writes to the same variable of a unit. The first write is
+ * sent to the
+ * bus immediately. Writes that arrive while it is executed, or within the
+ * window after it, only replace the pending value, so only the last one of them
+ * reaches the bus.
+ *
+ * @author achristian
+ */
+class WriteCoalescer {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteCoalescer.class);
+
+    private final int variableCount;
+    private final long window;
+    // shared by all instances in this JVM
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "HeliosWriteCoalescer");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    // variables with a write or window in progress, by unit and variable index
+    private final boolean[] active;
+    // latest value per variable, not yet written, by unit and variable index
+    private final Integer[] pending;
+
+    /**
+     * @param h helios instance to write to
+     * @param window time in ms after a write, in which further writes to the
+     * same variable are merged
+     */
+    WriteCoalescer(Helios h, long window) {
+        this.variableCount = h.getVariableCount();
+        this.window = window;
+        this.active = new boolean[16 * variableCount];
+        this.pending = new Integer[16 * variableCount];
+    }
+
+    /**
+     * Writes the value in background. Errors are logged.
+     *
+     * @param unit the unit to write to
+     * @param var the variable to write to
+     * @param value the value to write
+     */
+    synchronized void write(HeliosUnit unit, Variable var, int value) {
+        int key = unit.getNumber() * variableCount + var.index;
+        if (active[key]) {
+            Integer dropped = pending[key];
+            pending[key] = value;
+            if (dropped != null) {
+                log.debug("Dropping write of {} to '{}' of {}, replaced by {}", new Object[]{dropped, var.name, unit, value});
+            }
+            return;
+        }
+        active[key] = true;
+        executor.execute(new Flush(unit, var, value));
+    }
+
+    private synchronized void windowClosed(HeliosUnit unit, Variable var) {
+        int key = unit.getNumber() * variableCount + var.index;
+        Integer value = pending[key];
+        pending[key] = null;
+        if (value != null) {
+            executor.execute(new Flush(unit, var, value));
+        } else {
+            active[key] = false;
+        }
+    }
+
+    private class Flush implements Runnable {
+
+        private final HeliosUnit unit;
+        private final Variable var;
+        private final int value;
+
+        Flush(HeliosUnit unit, Variable var, int value) {
+            this.unit = unit;
+            this.var = var;
+            this.value = value;
+        }
+
+        @Override
+        public void run() {
+            try {
+                unit.writeAsync(var.index, value).addCallback(new HeliosCallback<Void>() {
+
+                    @Override
+                    public void onSuccess(Void result) {
+                        scheduleWindowClose();
+                    }
+
+                    @Override
+                    public void onFailure(Exception error) {
+                        log.error("Error writing " + value + " to '" + var.name + "' of " + unit, error);
+                        scheduleWindowClose();
+                    }
+                });
+            } catch (RuntimeException ex) {
+                log.error("Error writing " + value + " to '" + var.name + "' of " + unit, ex);
+                scheduleWindowClose();
+            }
+        }
+
+        private void scheduleWindowClose() {
+            executor.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    windowClosed(unit, var);
+                }
+            }, window, TimeUnit.MILLISECONDS);
+        }
+    }
+
+}
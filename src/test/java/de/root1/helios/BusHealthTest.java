@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link BusHealth}
+ *
+ * @author achristian
+ */
+public class BusHealthTest extends TestCase {
+
+    private final AtomicInteger reconnects = new AtomicInteger();
+    private volatile boolean gatewayDown;
+
+    private final BusHealth health = new BusHealth(new BusHealth.Connector() {
+
+        @Override
+        public void reconnect() throws IOException {
+            reconnects.incrementAndGet();
+            if (gatewayDown) {
+                throw new IOException("connection refused");
+            }
+        }
+    }, 3, 10, 100, 5, 20);
+
+    private void waitForState(BusHealth.State state) throws InterruptedException {
+        long end = System.currentTimeMillis() + 2000;
+        while (health.getState() != state && System.currentTimeMillis() < end) {
+            Thread.sleep(5);
+        }
+        assertEquals(state, health.getState());
+    }
+
+    public void testRetryDelay() {
+        for (int attempt = 1; attempt <= 10; attempt++) {
+            long max = Math.min(100, 10 << (attempt - 1));
+            long delay = health.getRetryDelay(attempt);
+            assertTrue("delay " + delay + " for attempt " + attempt, delay >= max / 2 && delay <= max);
+        }
+    }
+
+    public void testCircuitOpensAndRecovers() throws Exception {
+        gatewayDown = true;
+        health.recordFailure(1);
+        health.recordFailure(1);
+        assertTrue(health.allowRequest());
+        health.recordFailure(1);
+        assertFalse(health.allowRequest());
+
+        // keeps trying to reconnect in background
+        Thread.sleep(100);
+        assertEquals(BusHealth.State.OPEN, health.getState());
+        assertTrue(reconnects.get() >= 2);
+
+        gatewayDown = false;
+        waitForState(BusHealth.State.HALF_OPEN);
+        assertTrue(health.allowRequest());
+        // only one trial request until it is done
+        Object trial = new Object();
+        assertTrue(health.beginAttempt(trial));
+        assertFalse(health.allowRequest());
+        assertFalse(health.beginAttempt(new Object()));
+        assertTrue(health.beginAttempt(trial));
+        health.recordSuccess(1);
+        assertEquals(BusHealth.State.CLOSED, health.getState());
+        assertTrue(health.beginAttempt(new Object()));
+    }
+
+    public void testFailingLaneDoesNotOpenCircuit() {
+        for (int i = 0; i < 5; i++) {
+            health.recordFailure(2);
+            health.recordSuccess(1);
+        }
+        health.recordFailure(2);
+        assertEquals(BusHealth.State.CLOSED, health.getState());
+
+        // the whole bus fails
+        health.recordFailure(1);
+        health.recordFailure(1);
+        health.recordFailure(1);
+        assertEquals(BusHealth.State.OPEN, health.getState());
+        health.stop();
+    }
+
+    public void testFailedTrialOpensAgain() throws Exception {
+        health.connectionLost();
+        waitForState(BusHealth.State.HALF_OPEN);
+        assertTrue(health.beginAttempt(this));
+        health.recordFailure(1);
+        assertFalse(health.allowRequest());
+        waitForState(BusHealth.State.HALF_OPEN);
+        assertEquals(2, reconnects.get());
+        health.stop();
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link BusScheduler}
+ *
+ * @author achristian
+ */
+public class BusSchedulerTest extends TestCase {
+
+    private final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+
+    private final BusScheduler scheduler = new BusScheduler(new BusHealth(new BusHealth.Connector() {
+
+        @Override
+        public void reconnect() throws IOException {
+        }
+    }, 3, 10, 100, 5, 20));
+
+    @Override
+    protected void tearDown() throws Exception {
+        scheduler.stop();
+    }
+
+    private BusScheduler.Request<Void> request(int lane, BusScheduler.Priority priority, final String name) {
+        return new BusScheduler.Request<Void>(lane, priority, null, 1) {
+
+            @Override
+            Void execute() throws Exception {
+                executed.add(name);
+                return null;
+            }
+        };
+    }
+
+    public void testLanesTakeTurns() throws Exception {
+        // keep the bus thread busy until all requests are queued
+        final CountDownLatch busy = new CountDownLatch(1);
+        final CountDownLatch queued = new CountDownLatch(1);
+        scheduler.start();
+        scheduler.submit(new BusScheduler.Request<Void>(0, BusScheduler.Priority.WRITE, null, 1) {
+
+            @Override
+            Void execute() throws Exception {
+                busy.countDown();
+                queued.await();
+                return null;
+            }
+        });
+        busy.await();
+        for (int i = 1; i <= 3; i++) {
+            scheduler.submit(request(1, BusScheduler.Priority.BACKGROUND, "a" + i));
+        }
+        scheduler.submit(request(2, BusScheduler.Priority.BACKGROUND, "b1"));
+        scheduler.submit(request(2, BusScheduler.Priority.BACKGROUND, "b2"));
+        BusScheduler.Request<Void> last = scheduler.submit(request(1, BusScheduler.Priority.READ, "read"));
+        queued.countDown();
+        scheduler.await(last);
+        Thread.sleep(50);
+        assertEquals("[read, a1, b1, a2, b2, a3]", executed.toString());
+    }
+
+    public void testHeldLaneDoesNotBlockOthers() throws Exception {
+        scheduler.start();
+        scheduler.holdUntil(1, System.currentTimeMillis() + 200);
+        BusScheduler.Request<Void> held = scheduler.submit(request(1, BusScheduler.Priority.WRITE, "a"));
+        BusScheduler.Request<Void> other = scheduler.submit(request(2, BusScheduler.Priority.READ, "b"));
+        scheduler.await(other);
+        assertFalse(held.isDone());
+        scheduler.await(held);
+        assertEquals("[b, a]", executed.toString());
+    }
+
+    public void testRetryDelayDoesNotBlockOthers() throws Exception {
+        BusScheduler slowRetries = new BusScheduler(new BusHealth(new BusHealth.Connector() {
+
+            @Override
+            public void reconnect() throws IOException {
+            }
+        }, 3, 400, 400, 5, 20));
+        slowRetries.start();
+        BusScheduler.Request<Void> failing = slowRetries.submit(new BusScheduler.Request<Void>(1, BusScheduler.Priority.WRITE, null, 2) {
+
+            @Override
+            Void execute() throws Exception {
+                executed.add("a" + getAttempt());
+                if (getAttempt() == 1) {
+                    throw new TelegramException("no answer");
+                }
+                return null;
+            }
+        });
+        Thread.sleep(50);
+        long start = System.currentTimeMillis();
+        slowRetries.await(slowRetries.submit(request(2, BusScheduler.Priority.BACKGROUND, "b")));
+        assertTrue(System.currentTimeMillis() - start < 150);
+        slowRetries.await(failing);
+        slowRetries.stop();
+        assertEquals("[a1, b, a2]", executed.toString());
+    }
+
+    public void testStopFailsPendingRequests() throws Exception {
+        scheduler.start();
+        scheduler.holdUntil(1, System.currentTimeMillis() + 10000);
+        BusScheduler.Request<Void> held = scheduler.submit(request(1, BusScheduler.Priority.WRITE, "a"));
+        scheduler.stop();
+        try {
+            scheduler.await(held);
+            fail("request of stopped scheduler must fail");
+        } catch (TelegramException ex) {
+            // expected
+        }
+        assertEquals("[]", executed.toString());
+    }
+
+    public void testSubmitAfterStopFails() throws Exception {
+        scheduler.start();
+        scheduler.stop();
+        BusScheduler.Request<Void> late = scheduler.submit(request(1, BusScheduler.Priority.READ, "a"));
+        assertTrue(late.isDone());
+        try {
+            scheduler.await(late);
+            fail("request of stopped scheduler must fail");
+        } catch (TelegramException ex) {
+            // expected
+        }
+        assertEquals("[]", executed.toString());
+    }
+
+}
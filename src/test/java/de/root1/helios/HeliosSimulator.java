@@ -0,0 +1,431 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Simulates a Helios KWL bus with one or more mainboards and a wall remote, to
+ * test
+ * and benchmark {@link Helios} without a real ventilation unit. Clients are
+ * either connected via TCP, like to a RS485-over-TCP gateway, or in-process via
+ * a {@link LoopbackTransport}. All clients share the same simulated bus: bytes
+ * sent by one client are seen by all others.
+ * <p>
+ * The mainboards answer poll requests after a configurable latency and store
+ * written values. Optionally, garbage bytes are injected before responses, and
+ * the wall remote polls the mainboard on its own, competing for the bus.
+ *
+ * @author achristian
+ */
+public class HeliosSimulator {
+
+    private static final Logger log = LoggerFactory.getLogger(HeliosSimulator.class);
+
+    private static final byte MAINBOARD = 0x11;
+    private static final byte ALL_MAINBOARDS = 0x10;
+    private static final byte REMOTE = 0x21;
+
+    // registers by unit number and varid
+    private final byte[][] registers;
+    private final List<Endpoint> endpoints = new CopyOnWriteArrayList<>();
+    private final Random random = new Random();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "HeliosSimulator");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private volatile long responseLatency = 5;
+    private volatile double garbageRate;
+    private volatile boolean running = true;
+    private ServerSocket serverSocket;
+
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+
+    public HeliosSimulator() {
+        this(1);
+    }
+
+    /**
+     * @param units number of mainboards, in range [1..15], with addresses
+     * 0x11, 0x12, ...
+     */
+    public HeliosSimulator(int units) {
+        registers = new byte[units + 1][256];
+        for (int unit = 1; unit <= units; unit++) {
+            setRegister(unit, 0x32, 0x80); // outside_temp
+            setRegister(unit, 0x33, 0x84); // exhaust_temp
+            setRegister(unit, 0x34, 0x9C); // inside_temp
+            setRegister(unit, 0x35, 0x96); // incoming_temp
+            setRegister(unit, 0xAF, 0x70); // bypass_temp
+            setRegister(unit, 0x29, 0x0F); // fanspeed 4
+            setRegister(unit, 0xA5, 0xFF); // max_fanspeed 8
+            setRegister(unit, 0xA9, 0x01); // min_fanspeed 1
+            setRegister(unit, 0xA3, 0x01); // power on
+            setRegister(unit, 0x08, 0x0A); // bypass, fan_in on
+            setRegister(unit, 0xAB, 0x04); // clean_filter
+            setRegister(unit, 0xAA, 0x20); // boost_setting
+            setRegister(unit, 0x71, 0x00); // boost off
+            setRegister(unit, 0x79, 0x00); // boost_remaining
+            setRegister(unit, 0xB0, 0x64); // fan_in_percent
+            setRegister(unit, 0xB1, 0x64); // fan_out_percent
+            setRegister(unit, 0x36, 0x00); // device_error
+        }
+    }
+
+    public void setRegister(int varid, int rawvalue) {
+        setRegister(1, varid, rawvalue);
+    }
+
+    public synchronized void setRegister(int unit, int varid, int rawvalue) {
+        registers[unit][varid & 0xFF] = (byte) rawvalue;
+    }
+
+    public int getRegister(int varid) {
+        return getRegister(1, varid);
+    }
+
+    public synchronized int getRegister(int unit, int varid) {
+        return registers[unit][varid & 0xFF] & 0xFF;
+    }
+
+    /**
+     * @param ms time in ms the mainboard needs to answer a poll request
+     */
+    public void setResponseLatency(long ms) {
+        responseLatency = ms;
+    }
+
+    /**
+     * @param rate probability [0..1] that garbage bytes are sent before a
+     * response
+     */
+    public void setGarbageRate(double rate) {
+        garbageRate = rate;
+    }
+
+    /**
+     * Lets the wall remote poll a random register of the 1st mainboard in the
+     * given interval
+     *
+     * @param ms interval in ms
+     */
+    public void startRemoteTraffic(long ms) {
+        executor.scheduleAtFixedRate(new Runnable() {
+
+            @Override
+            public void run() {
+                byte varid = (byte) registerIds[random.nextInt(registerIds.length)];
+                broadcast(telegram(REMOTE, MAINBOARD, (byte) 0, varid), null);
+                broadcast(telegram(MAINBOARD, REMOTE, varid, (byte) getRegister(varid)), null);
+            }
+        }, ms, ms, TimeUnit.MILLISECONDS);
+    }
+
+    private static final int[] registerIds = {0x32, 0x33, 0x34, 0x35, 0x29, 0x08, 0x71, 0x79, 0xA3};
+
+    /**
+     * @return number of poll requests answered by the mainboards
+     */
+    public long getPollCount() {
+        return polls.get();
+    }
+
+    /**
+     * @return number of values written to the mainboards
+     */
+    public long getWriteCount() {
+        return writes.get();
+    }
+
+    /**
+     * Accepts TCP connections on the given port, like a RS485-over-TCP gateway
+     *
+     * @param port tcp port
+     * @throws IOException if port cannot be opened
+     */
+    public void listen(int port) throws IOException {
+        serverSocket = new ServerSocket(port);
+        Thread acceptor = new Thread("HeliosSimulatorAcceptor") {
+
+            @Override
+            public void run() {
+                while (running) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        socket.setTcpNoDelay(true);
+                        log.info("Client connected: {}", socket.getRemoteSocketAddress());
+                        final InputStream in = socket.getInputStream();
+                        final OutputStream out = socket.getOutputStream();
+                        final Endpoint endpoint = new Endpoint() {
+
+                            @Override
+                            void send(byte[] data) throws IOException {
+                                synchronized (out) {
+                                    out.write(data);
+                                    out.flush();
+                                }
+                            }
+                        };
+                        endpoints.add(endpoint);
+                        Thread reader = new Thread("HeliosSimulatorClient") {
+
+                            @Override
+                            public void run() {
+                                byte[] buffer = new byte[128];
+                                try {
+                                    int count;
+                                    while (running && (count = in.read(buffer)) != -1) {
+                                        endpoint.received(buffer, count);
+                                    }
+                                } catch (IOException ex) {
+                                    log.debug("Client disconnected: {}", ex.getMessage());
+                                }
+                                endpoints.remove(endpoint);
+                                try {
+                                    socket.close();
+                                } catch (IOException ex) {
+                                }
+                            }
+                        };
+                        reader.setDaemon(true);
+                        reader.start();
+                    } catch (IOException ex) {
+                        if (running) {
+                            log.error("Error accepting client", ex);
+                        }
+                    }
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Creates an in-process connection to the simulated bus
+     *
+     * @return transport to be used by {@link Helios}
+     */
+    Transport connect() {
+        LoopbackTransport[] pair = LoopbackTransport.createPair();
+        final LoopbackTransport transport = pair[1];
+        try {
+            transport.connect();
+        } catch (IOException ex) {
+            // loopback cannot fail
+        }
+        final Endpoint endpoint = new Endpoint() {
+
+            @Override
+            void send(byte[] data) throws IOException {
+                transport.send(data);
+            }
+        };
+        endpoints.add(endpoint);
+        Thread reader = new Thread("HeliosSimulatorClient") {
+
+            @Override
+            public void run() {
+                ReceiveBuffer buffer = transport.getReceiveBuffer();
+                long position = buffer.getCount();
+                byte[] data = new byte[buffer.getCapacity()];
+                try {
+                    while (running) {
+                        if (transport.receive(100) > 0) {
+                            int count = 0;
+                            for (; position < buffer.getCount(); position++) {
+                                data[count++] = buffer.get(position);
+                            }
+                            endpoint.received(data, count);
+                        }
+                    }
+                } catch (IOException ex) {
+                    log.debug("Client disconnected: {}", ex.getMessage());
+                }
+                endpoints.remove(endpoint);
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+        return pair[0];
+    }
+
+    public void stop() {
+        running = false;
+        executor.shutdownNow();
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException ex) {
+            }
+        }
+    }
+
+    /**
+     * Sends data to all endpoints except the sender
+     */
+    private void broadcast(byte[] data, Endpoint sender) {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint != sender) {
+                try {
+                    endpoint.send(data);
+                } catch (IOException ex) {
+                    log.debug("Error sending to client: {}", ex.getMessage());
+                }
+            }
+        }
+    }
+
+    private static byte[] telegram(byte sender, byte receiver, byte function, byte value) {
+        byte[] telegram = new byte[]{1, sender, receiver, function, value, 0};
+        telegram[5] = (byte) (telegram[0] + telegram[1] + telegram[2] + telegram[3] + telegram[4]);
+        return telegram;
+    }
+
+    private void handleTelegram(byte[] telegram) {
+        final byte sender = telegram[1];
+        byte receiver = telegram[2];
+        final byte function = telegram[3];
+        final byte value = telegram[4];
+
+        final int unit = receiver - ALL_MAINBOARDS;
+        if (receiver == ALL_MAINBOARDS && function != 0) {
+            writes.incrementAndGet();
+            for (int i = 1; i < registers.length; i++) {
+                setRegister(i, function, value);
+            }
+        } else if (unit < 1 || unit >= registers.length) {
+            // not addressed to one of our mainboards
+        } else if (function == 0) {
+            polls.incrementAndGet();
+            executor.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (random.nextDouble() < garbageRate) {
+                        byte[] garbage = new byte[1 + random.nextInt(8)];
+                        random.nextBytes(garbage);
+                        broadcast(garbage, null);
+                    }
+                    broadcast(telegram((byte) (ALL_MAINBOARDS + unit), sender, value, (byte) getRegister(unit, value)), null);
+                }
+            }, responseLatency, TimeUnit.MILLISECONDS);
+        } else {
+            writes.incrementAndGet();
+            setRegister(unit, function, value);
+        }
+    }
+
+    /**
+     * A client on the simulated bus
+     */
+    private abstract class Endpoint {
+
+        private final byte[] window = new byte[6];
+
+        abstract void send(byte[] data) throws IOException;
+
+        void received(byte[] data, int count) {
+            byte[] copy = new byte[count];
+            System.arraycopy(data, 0, copy, 0, count);
+            broadcast(copy, this);
+
+            for (int i = 0; i < count; i++) {
+                System.arraycopy(window, 1, window, 0, window.length - 1);
+                window[5] = data[i];
+                if (window[0] == 0x01 && window[5] == (byte) (window[0] + window[1] + window[2] + window[3] + window[4])) {
+                    handleTelegram(window.clone());
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the simulator as TCP server.
+     *
+     * @param args [-u number of mainboards] [-p port] [-l response latency ms]
+     * [-g garbage rate 0..1] [-r remote poll interval ms]
+     * @throws IOException if port cannot be opened
+     */
+    public static void main(String[] args) throws IOException {
+        int port = 4000;
+        int units = 1;
+        int first = 0;
+        if (args.length >= 2 && args[0].equals("-u")) {
+            units = Integer.parseInt(args[1]);
+            first = 2;
+        }
+        HeliosSimulator simulator = new HeliosSimulator(units);
+        for (int i = first; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-u":
+                    // only allowed as 1st option
+                    System.err.println("Option -u must be given first");
+                    System.exit(1);
+                    break;
+                case "-p":
+                    port = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-l":
+                    simulator.setResponseLatency(Long.parseLong(args[i + 1]));
+                    break;
+                case "-g":
+                    simulator.setGarbageRate(Double.parseDouble(args[i + 1]));
+                    break;
+                case "-r":
+                    simulator.startRemoteTraffic(Long.parseLong(args[i + 1]));
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+            }
+        }
+        simulator.listen(port);
+        System.out.println("Helios simulator listening on port " + port);
+        while (!Thread.interrupted()) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException ex) {
+                break;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link Helios} against a {@link HeliosSimulator}
+ *
+ * @author achristian
+ */
+public class HeliosTest extends TestCase {
+
+    private HeliosSimulator simulator;
+    private Helios h;
+
+    @Override
+    protected void setUp() throws Exception {
+        simulator = new HeliosSimulator();
+        h = new Helios(simulator.connect());
+        h.connect();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        h.disconnect();
+        simulator.stop();
+    }
+
+    public void testReadValue() throws Exception {
+        assertEquals(4, h.readValue("fanspeed"));
+        assertEquals(1, h.readValue("bypass"));
+        assertEquals(2, simulator.getPollCount());
+        assertEquals(2, h.getMetrics().getPolls());
+        assertTrue(h.getMetrics().getReport().contains("helios_poll_rtt_us_count{var=\"fanspeed\"} 1"));
+
+        // the text format does not depend on the locale
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(Locale.GERMANY);
+        try {
+            assertTrue(h.getMetrics().getReport().matches("(?s).*helios_poll_rtt_us_mean\\{var=\"fanspeed\"\\} \\d+\\.\\d\n.*"));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    public void testWriteValue() throws Exception {
+        h.writeValue("fanspeed", 6);
+        assertRegister(0x29, 0x3F);
+
+        // other bits of the register must be kept
+        h.writeValue("fan_in_on_off", 0);
+        assertRegister(0x08, 0x02);
+    }
+
+    public void testWriteIfDifferent() throws Exception {
+        Map<String, Integer> defaults = new TreeMap<>();
+        defaults.put("fanspeed", 4);
+        defaults.put("max_fanspeed", 8);
+        defaults.put("min_fanspeed", 2);
+        defaults.put("clean_filter", 4);
+        Map<String, HeliosFuture<Void>> writes = h.getUnit(1).writeIfDifferent(defaults);
+        assertEquals(Arrays.asList("min_fanspeed"), new ArrayList<>(writes.keySet()));
+        h.await(writes.get("min_fanspeed"));
+        assertRegister(0xA9, 0x03);
+        long written = simulator.getWriteCount();
+
+        // all set now, nothing to write
+        assertTrue(h.getUnit(1).writeIfDifferent(defaults).isEmpty());
+        assertEquals(written, simulator.getWriteCount());
+    }
+
+    /**
+     * The simulator processes the written telegrams in background, so give it
+     * some time
+     */
+    private void assertRegister(int varid, int expected) throws InterruptedException {
+        assertEquals(expected, waitForRegister(1, varid, expected));
+    }
+
+    public void testAsync() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicInteger result = new AtomicInteger();
+        // chain a read after a write, without blocking
+        h.writeAsync("fanspeed", 2).addCallback(new HeliosCallback<Void>() {
+
+            @Override
+            public void onSuccess(Void nothing) {
+                h.readAsync("fanspeed").addCallback(new HeliosCallback<Integer>() {
+
+                    @Override
+                    public void onSuccess(Integer value) {
+                        result.set(value);
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onFailure(Exception error) {
+                        done.countDown();
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(Exception error) {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(2, result.get());
+        assertEquals(Integer.valueOf(2), h.readAsync("fanspeed").get());
+    }
+
+    public void testCallbacksKeepBusOrder() throws Exception {
+        final List<String> order = new CopyOnWriteArrayList<>();
+        final List<Thread> threads = new CopyOnWriteArrayList<>();
+        final CountDownLatch done = new CountDownLatch(4);
+        for (final String name : new String[]{"fanspeed", "bypass", "max_fanspeed", "min_fanspeed"}) {
+            h.readAsync(name).addCallback(new HeliosCallback<Integer>() {
+
+                @Override
+                public void onSuccess(Integer value) {
+                    order.add(name);
+                    threads.add(Thread.currentThread());
+                    done.countDown();
+                }
+
+                @Override
+                public void onFailure(Exception error) {
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("fanspeed", "bypass", "max_fanspeed", "min_fanspeed"), order);
+        // all callbacks share one thread
+        assertEquals(1, new HashSet<>(threads).size());
+    }
+
+    public void testPowerStateSettle() throws Exception {
+        assertEquals(4, h.readValue("fanspeed"));
+        h.writeValue("power_state", 0);
+        assertTrue(h.isSettling());
+
+        // cached values are still available, without waiting for the unit
+        long start = System.currentTimeMillis();
+        assertEquals(4, h.readValue("fanspeed"));
+        try {
+            h.writeValue("power_state", 1);
+            fail("power state change must be rejected while settling");
+        } catch (TelegramException expected) {
+        }
+        assertTrue(System.currentTimeMillis() - start < 1000);
+
+        // other writes wait until the unit has settled
+        assertFalse(h.writeAsync("fanspeed", 2).isDone());
+    }
+
+    public void testMultipleUnits() throws Exception {
+        h.disconnect();
+        simulator.stop();
+        simulator = new HeliosSimulator(2);
+        simulator.setRegister(2, 0x29, 0x3F);
+        h = new Helios(simulator.connect());
+        h.setBroadcastWrites(false);
+        h.connect();
+
+        HeliosUnit unit1 = h.getUnit(1);
+        HeliosUnit unit2 = h.getUnit(2);
+        assertEquals(4, unit1.readValue("fanspeed"));
+        assertEquals(6, unit2.readValue("fanspeed"));
+
+        // no broadcast, the other unit keeps its value
+        unit2.writeValue("fanspeed", 2);
+        assertEquals(0x03, waitForRegister(2, 0x29, 0x03));
+        assertEquals(0x0F, simulator.getRegister(1, 0x29));
+        unit1.writeValue("fanspeed", 6);
+        assertEquals(0x3F, waitForRegister(1, 0x29, 0x3F));
+        assertEquals(0x03, simulator.getRegister(2, 0x29));
+
+        // a settling unit does not hold the others
+        unit2.writeValue("power_state", 0);
+        assertTrue(unit2.isSettling());
+        assertFalse(unit1.isSettling());
+        long start = System.currentTimeMillis();
+        assertEquals(1, unit1.readValue("bypass"));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+
+    public void testPassiveListening() throws Exception {
+        h.disconnect();
+        simulator.stop();
+        simulator = new HeliosSimulator(2);
+        h = new Helios(simulator.connect());
+        h.connect();
+        HeliosUnit unit1 = h.getUnit(1);
+        HeliosUnit unit2 = h.getUnit(2);
+
+        // the wall remote polls unit 1 only
+        simulator.startRemoteTraffic(10);
+        Thread.sleep(200);
+        assertEquals(0, countOverheardRegisters(unit1));
+
+        h.setPassiveListening(true);
+        long end = System.currentTimeMillis() + 2000;
+        while (countOverheardRegisters(unit1) < 3 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertTrue(countOverheardRegisters(unit1) >= 3);
+        assertEquals(0, countOverheardRegisters(unit2));
+        assertEquals(0, simulator.getPollCount());
+        for (int varid = 0; varid < 256; varid++) {
+            int overheard = unit1.registerImage.get((byte) varid, Long.MAX_VALUE);
+            if (overheard != -1) {
+                assertEquals(simulator.getRegister(1, varid), overheard);
+            }
+        }
+    }
+
+    private int countOverheardRegisters(HeliosUnit unit) {
+        int count = 0;
+        for (int varid = 0; varid < 256; varid++) {
+            if (unit.registerImage.get((byte) varid, Long.MAX_VALUE) != -1) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void testReconnectReplacesBusReader() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            h.reconnect();
+        }
+        assertEquals(4, h.readValue("fanspeed"));
+        assertEquals(1, countThreads("HeliosBusReader"));
+    }
+
+    public void testReadAfterDisconnect() throws Exception {
+        h.disconnect();
+        // fails instead of waiting for the stopped bus thread
+        try {
+            h.readAsync("fanspeed").get(1, TimeUnit.SECONDS);
+            fail("read after disconnect");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof TelegramException);
+        }
+        try {
+            h.readValue("fanspeed");
+            fail("read after disconnect");
+        } catch (TelegramException expected) {
+        }
+    }
+
+    public void testSharedBusStopsWithLastUser() throws Exception {
+        h.disconnect();
+        h.attach();
+        h.attach();
+        h.detach();
+        assertEquals(4, h.readValue("fanspeed"));
+
+        // reads of the last user, in flight or later, fail instead of waiting
+        simulator.setResponseLatency(500);
+        HeliosFuture<Integer> inFlight = h.readAsync("bypass");
+        Thread.sleep(50);
+        h.detach();
+        assertEquals(0, countThreads("HeliosBus"));
+        assertEquals(0, countThreads("HeliosBusReader"));
+        assertReadFails(inFlight);
+        assertReadFails(h.readAsync("fanspeed"));
+        simulator.setResponseLatency(0);
+        h.connect();
+    }
+
+    private void assertReadFails(HeliosFuture<Integer> read) throws Exception {
+        try {
+            read.get(1, TimeUnit.SECONDS);
+            fail("read of stopped bus");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof TelegramException);
+        }
+    }
+
+    private int countThreads(String name) {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals(name) && thread.isAlive()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void testRegisterSnapshot() throws Exception {
+        File file = File.createTempFile("registers", ".dat");
+        try {
+            assertEquals(4, h.readValue("fanspeed"));
+            new RegisterSnapshot(h, file, 60000).save();
+            h.disconnect();
+            simulator.stop();
+
+            // restart
+            simulator = new HeliosSimulator();
+            h = new Helios(simulator.connect());
+            HeliosUnit unit = h.getUnit(1);
+            assertEquals(1, new RegisterSnapshot(h, file, 60000).load());
+            assertEquals(Integer.valueOf(4), unit.getCachedValue(h.getVariable("fanspeed").index, Long.MAX_VALUE));
+
+            // only a real change is reported
+            final List<Integer> changes = new CopyOnWriteArrayList<>();
+            final CountDownLatch changed = new CountDownLatch(1);
+            unit.addVariableListener("fanspeed", new VariableListener() {
+
+                @Override
+                public void valueChanged(Variable variable, int value) {
+                    changes.add(value);
+                    changed.countDown();
+                }
+            });
+            h.connect();
+            assertEquals(4, h.readValue("fanspeed"));
+            simulator.setRegister(0x29, 0x3F);
+            assertEquals(6, h.readValue("fanspeed"));
+            assertTrue(changed.await(1, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList(6), changes);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private int waitForRegister(int unit, int varid, int expected) throws InterruptedException {
+        long end = System.currentTimeMillis() + 1000;
+        while (simulator.getRegister(unit, varid) != expected && System.currentTimeMillis() < end) {
+            Thread.sleep(5);
+        }
+        return simulator.getRegister(unit, varid);
+    }
+
+    public void testReadValuesWithDisturbedBus() throws Exception {
+        simulator.setGarbageRate(0.3);
+        simulator.startRemoteTraffic(20);
+        for (int i = 0; i < 5; i++) {
+            Map<String, Integer> values = h.readValues(Arrays.asList("fanspeed", "bypass", "power_state", "inside_temp"));
+            assertEquals(Integer.valueOf(4), values.get("fanspeed"));
+            assertEquals(Integer.valueOf(1), values.get("bypass"));
+            assertEquals(Integer.valueOf(1), values.get("power_state"));
+            assertNotNull(values.get("inside_temp"));
+        }
+    }
+
+}
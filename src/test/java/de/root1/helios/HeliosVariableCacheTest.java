@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link HeliosVariableCache} against a {@link HeliosSimulator}
+ *
+ * @author achristian
+ */
+public class HeliosVariableCacheTest extends TestCase {
+
+    private HeliosSimulator simulator;
+    private Helios h;
+
+    @Override
+    protected void setUp() throws Exception {
+        simulator = new HeliosSimulator();
+        simulator.setResponseLatency(50);
+        h = new Helios(simulator.connect());
+        h.connect();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        h.disconnect();
+        simulator.stop();
+    }
+
+    public void testFirstAccessReads() throws Exception {
+        HeliosVariableCache cache = h.getCachedVariables(60000).get("fanspeed");
+        assertTrue(cache.isExpired());
+        assertEquals(4, cache.forcedGet());
+        assertFalse(cache.isExpired());
+        assertFalse(cache.hasChanged());
+    }
+
+    public void testConcurrentMissesShareRead() throws Exception {
+        final HeliosVariableCache cache = h.getCachedVariables(60000).get("fanspeed");
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger sum = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        sum.addAndGet(cache.forcedGet());
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(4 * threads.length, sum.get());
+        assertEquals(1, simulator.getPollCount());
+    }
+
+    public void testRegisterValueKeepsItsAge() throws Exception {
+        assertEquals(4, h.readValue("fanspeed"));
+        Thread.sleep(300);
+        // taken from the register cache, which is already 300ms old
+        HeliosVariableCache cache = h.getCachedVariables(500).get("fanspeed");
+        assertEquals(4, cache.forcedGet());
+        assertEquals(1, simulator.getPollCount());
+        Thread.sleep(300);
+        assertTrue(cache.isExpired());
+    }
+
+    public void testStaleValueIsRefreshedInBackground() throws Exception {
+        HeliosVariableCache cache = h.getCachedVariables(200).get("fanspeed");
+        final List<Runnable> refreshes = new ArrayList<>();
+        Executor executor = new Executor() {
+
+            @Override
+            public void execute(Runnable command) {
+                refreshes.add(command);
+            }
+        };
+        final AtomicReference<Integer> changed = new AtomicReference<>();
+        VariableListener listener = new VariableListener() {
+
+            @Override
+            public void valueChanged(Variable variable, int value) {
+                changed.set(value);
+            }
+        };
+        assertNull(cache.getStale(executor, listener));
+        assertEquals(4, cache.forcedGet());
+        Thread.sleep(300);
+        simulator.setRegister(0x29, 0x3F);
+
+        // expired value is answered without bus access
+        assertEquals(Integer.valueOf(4), cache.getStale(executor, listener));
+        assertEquals(1, simulator.getPollCount());
+        assertEquals(1, refreshes.size());
+
+        refreshes.remove(0).run();
+        assertEquals(2, simulator.getPollCount());
+        assertEquals(Integer.valueOf(6), changed.get());
+
+        // fresh value needs no refresh
+        assertEquals(Integer.valueOf(6), cache.getStale(executor, listener));
+        assertTrue(refreshes.isEmpty());
+    }
+
+}
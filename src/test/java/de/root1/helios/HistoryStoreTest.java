@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link HistoryStore}
+ *
+ * @author achristian
+ */
+public class HistoryStoreTest extends TestCase {
+
+    private static final long MINUTE = 60 * 1000;
+    private static final long HOUR = 60 * MINUTE;
+    private static final List<String> COLUMNS = Arrays.asList("inside_temp", "2.inside_temp");
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("history", ".dat");
+        file.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testAggregates() throws Exception {
+        HistoryStore store = new HistoryStore(file, COLUMNS, 100, 10, 10);
+        // four samples per minute for two hours, the second column is only known in the first minute
+        for (long time = 0; time < 2 * HOUR; time += 15000) {
+            int value = (int) (time / MINUTE);
+            store.append(time, new int[]{value, time < MINUTE ? 5 : HistoryStore.MISSING});
+        }
+        store.append(2 * HOUR, new int[]{0, 0});
+
+        HistoryStore.Series samples = store.query("inside_temp", HistoryStore.Resolution.SAMPLE, 0, Long.MAX_VALUE);
+        assertEquals(100, samples.size());
+        assertEquals(2 * HOUR, samples.times[99]);
+
+        HistoryStore.Series minutes = store.query("inside_temp", HistoryStore.Resolution.MINUTE, 110 * MINUTE, 115 * MINUTE);
+        assertEquals(5, minutes.size());
+        assertEquals(110 * MINUTE, minutes.times[0]);
+        assertEquals(110, minutes.min[0]);
+        assertEquals(110, minutes.max[0]);
+
+        HistoryStore.Series hours = store.query("inside_temp", HistoryStore.Resolution.HOUR, 0, Long.MAX_VALUE);
+        assertEquals(2, hours.size());
+        assertEquals(0, hours.min[0]);
+        assertEquals(59, hours.max[0]);
+        assertEquals(29.5f, hours.mean[0], 0.001f);
+        assertEquals(60, hours.min[1]);
+
+        HistoryStore.Series other = store.query("2.inside_temp", HistoryStore.Resolution.HOUR, 0, Long.MAX_VALUE);
+        assertEquals(1, other.size());
+        assertEquals(5, other.max[0]);
+        store.close();
+    }
+
+    public void testReopen() throws Exception {
+        HistoryStore store = new HistoryStore(file, COLUMNS, 10, 10, 10);
+        store.append(1000, new int[]{21, 22});
+        store.append(2000, new int[]{-3, 22});
+        store.close();
+
+        store = new HistoryStore(file, COLUMNS, 10, 10, 10);
+        HistoryStore.Series samples = store.query("inside_temp", HistoryStore.Resolution.SAMPLE, 0, 3000);
+        assertEquals(2, samples.size());
+        assertEquals(-3, samples.min[1]);
+        store.close();
+
+        // different columns, starts empty
+        store = new HistoryStore(file, Arrays.asList("outside_temp", "2.inside_temp"), 10, 10, 10);
+        assertEquals(0, store.query("outside_temp", HistoryStore.Resolution.SAMPLE, 0, 3000).size());
+        store.close();
+    }
+
+}
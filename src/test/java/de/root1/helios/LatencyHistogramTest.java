@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link LatencyHistogram}
+ *
+ * @author achristian
+ */
+public class LatencyHistogramTest extends TestCase {
+
+    public void testBucketsAreContiguous() {
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        for (long value = 1; value < 100000; value++) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(value <= LatencyHistogram.upperBoundOf(bucket));
+            assertTrue(value > LatencyHistogram.upperBoundOf(bucket - 1));
+        }
+    }
+
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500.5, histogram.getMean(), 0.001);
+        long median = histogram.getPercentile(50);
+        assertTrue("median " + median, median >= 500 && median <= 500 * 1.125);
+        long p99 = histogram.getPercentile(99);
+        assertTrue("p99 " + p99, p99 >= 990 && p99 <= 1000);
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory transport. Two instances are connected with each other: bytes sent
+ * on one of them are received by the other one. Used to run the protocol
+ * engine without a real bus, e.g. against a simulated ventilation unit.
+ *
+ * @author achristian
+ */
+class LoopbackTransport implements Transport {
+
+    private final ReceiveBuffer receiveBuffer = new ReceiveBuffer(1024);
+    private final BlockingQueue<byte[]> inbox = new LinkedBlockingQueue<>();
+    private LoopbackTransport peer;
+    private volatile boolean connected;
+
+    /**
+     * Creates two connected transports
+     *
+     * @return array with both ends
+     */
+    static LoopbackTransport[] createPair() {
+        LoopbackTransport a = new LoopbackTransport();
+        LoopbackTransport b = new LoopbackTransport();
+        a.peer = b;
+        b.peer = a;
+        return new LoopbackTransport[]{a, b};
+    }
+
+    private LoopbackTransport() {
+    }
+
+    @Override
+    public void connect() throws IOException {
+        connected = true;
+    }
+
+    @Override
+    public void disconnect() throws IOException {
+        connected = false;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public void send(byte[] data) throws IOException {
+        if (!connected) {
+            throw new IOException("Not connected");
+        }
+        // bytes sent while the other side is not connected are lost, like on a real bus
+        if (peer.connected) {
+            peer.inbox.add(data.clone());
+        }
+    }
+
+    @Override
+    public int receive(long timeout) throws IOException {
+        if (!connected) {
+            throw new IOException("Not connected");
+        }
+        byte[] data;
+        try {
+            data = inbox.poll(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+        if (data == null) {
+            return 0;
+        }
+        long time = System.currentTimeMillis();
+        for (byte b : data) {
+            receiveBuffer.put(b, time);
+        }
+        return data.length;
+    }
+
+    @Override
+    public ReceiveBuffer getReceiveBuffer() {
+        return receiveBuffer;
+    }
+
+}
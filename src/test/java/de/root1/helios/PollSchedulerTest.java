@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link PollScheduler} against a {@link HeliosSimulator}
+ *
+ * @author achristian
+ */
+public class PollSchedulerTest extends TestCase {
+
+    private HeliosSimulator simulator;
+    private Helios h;
+    private PollScheduler scheduler;
+    private Thread poller;
+    private int fanspeed;
+
+    @Override
+    protected void setUp() throws Exception {
+        simulator = new HeliosSimulator();
+        h = new Helios(simulator.connect());
+        h.connect();
+        fanspeed = h.getVariableIndex("fanspeed");
+        scheduler = new PollScheduler(h.getUnit(1), Collections.singletonMap("fanspeed", 50L), 200);
+        poller = new Thread(scheduler);
+        poller.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        poller.interrupt();
+        poller.join();
+        h.disconnect();
+        simulator.stop();
+    }
+
+    public void testIntervalOfUnchangedValueGrows() throws Exception {
+        // doubled with each poll up to the max. interval
+        List<Long> intervals = new ArrayList<>();
+        long end = System.currentTimeMillis() + 2000;
+        while (System.currentTimeMillis() < end) {
+            long interval = scheduler.getInterval(fanspeed);
+            if (intervals.isEmpty() || intervals.get(intervals.size() - 1) != interval) {
+                intervals.add(interval);
+            }
+            if (interval == 200) {
+                break;
+            }
+            Thread.sleep(5);
+        }
+        assertEquals("[50, 100, 200]", intervals.toString());
+        Thread.sleep(500);
+        assertEquals(200, scheduler.getInterval(fanspeed));
+        assertEquals(-1, scheduler.getInterval(h.getVariableIndex("bypass")));
+    }
+
+    public void testTouchResetsInterval() throws Exception {
+        waitForInterval(200);
+        scheduler.touch(fanspeed);
+        assertEquals(50, scheduler.getInterval(fanspeed));
+    }
+
+    public void testChangeResetsInterval() throws Exception {
+        waitForInterval(200);
+        simulator.setRegister(0x29, 0x3F);
+        waitForInterval(50);
+    }
+
+    private void waitForInterval(long expected) throws InterruptedException {
+        long end = System.currentTimeMillis() + 2000;
+        while (scheduler.getInterval(fanspeed) != expected && System.currentTimeMillis() < end) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, scheduler.getInterval(fanspeed));
+    }
+
+}
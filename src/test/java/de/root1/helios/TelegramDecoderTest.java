@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link TelegramDecoder}
+ *
+ * @author achristian
+ */
+public class TelegramDecoderTest extends TestCase {
+
+    private final List<byte[]> decoded = new ArrayList<>();
+    private final List<Integer> skips = new ArrayList<>();
+    private final TelegramDecoder decoder = new TelegramDecoder(new TelegramDecoder.Listener() {
+
+        @Override
+        public void telegramDecoded(byte[] telegram, int skipped) {
+            decoded.add(telegram);
+            skips.add(skipped);
+        }
+    }, 50);
+
+    private static final byte[] TELEGRAM = {0x01, 0x11, 0x2F, 0x29, 0x0F, 0x79};
+
+    private void put(long time, byte... bytes) {
+        for (byte b : bytes) {
+            decoder.put(b, time);
+        }
+    }
+
+    public void testTelegramInGarbage() {
+        put(0, new byte[]{(byte) 0xFF, 0x01, 0x01, 0x33, (byte) 0x80});
+        put(0, TELEGRAM);
+        put(0, new byte[]{0x79, 0x00, 0x01});
+        assertEquals(1, decoded.size());
+        assertTrue(Arrays.equals(TELEGRAM, decoded.get(0)));
+        assertEquals(Integer.valueOf(5), skips.get(0));
+    }
+
+    public void testConsecutiveTelegrams() {
+        put(0, TELEGRAM);
+        put(1, TELEGRAM);
+        put(2, TELEGRAM);
+        assertEquals(3, decoded.size());
+    }
+
+    public void testMaxSpanExceeded() {
+        put(0, Arrays.copyOf(TELEGRAM, 3));
+        put(51, Arrays.copyOfRange(TELEGRAM, 3, 6));
+        assertEquals(0, decoded.size());
+    }
+
+    public void testReset() {
+        put(0, Arrays.copyOf(TELEGRAM, 3));
+        decoder.reset();
+        put(0, Arrays.copyOfRange(TELEGRAM, 3, 6));
+        assertEquals(0, decoded.size());
+        put(0, TELEGRAM);
+        assertEquals(1, decoded.size());
+    }
+
+}
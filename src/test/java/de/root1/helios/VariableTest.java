@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests conversion of {@link Variable}
+ *
+ * @author achristian
+ */
+public class VariableTest extends TestCase {
+
+    private final Variable temperature = new Variable("bypass_temp", (byte) 0xAF, Variable.Type.temperature, -1, true, true);
+
+    public void testTemperatureRoundTrip() {
+        for (int t = -74; t <= 100; t++) {
+            int raw = temperature.toRaw(t, (byte) 0);
+            int nearest = temperature.toValue((byte) raw);
+            for (int other : Helios.CONST_TEMPERATURE) {
+                assertTrue("raw " + raw + " for " + t + "°C is not nearest", Math.abs(nearest - t) <= Math.abs(other - t));
+            }
+        }
+    }
+
+    public void testTemperatureMiddleOfRun() {
+        // 21°C is raw 0xA2..0xA4
+        assertEquals(0xA3, temperature.toRaw(21, (byte) 0));
+        assertEquals(0, temperature.toRaw(-100, (byte) 0));
+        assertEquals(100, temperature.toValue((byte) temperature.toRaw(120, (byte) 0)));
+    }
+
+    public void testFanspeed() {
+        Variable fanspeed = new Variable("fanspeed", (byte) 0x29, Variable.Type.fanspeed, -1, true, true);
+        for (int speed = 1; speed <= 8; speed++) {
+            assertEquals(speed, fanspeed.toValue((byte) fanspeed.toRaw(speed, (byte) 0)));
+        }
+        try {
+            fanspeed.toValue((byte) 0x02);
+            fail("invalid raw value accepted");
+        } catch (IllegalArgumentException ex) {
+        }
+        try {
+            fanspeed.toRaw(9, (byte) 0);
+            fail("invalid fanspeed accepted");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    public void testBit() {
+        Variable bit = new Variable("fan_in_on_off", (byte) 0x08, Variable.Type.bit, 3, true, true);
+        assertEquals(1, bit.toValue((byte) 0x0A));
+        assertEquals(0x02, bit.toRaw(0, (byte) 0x0A));
+        assertEquals((byte) 0x8A, (byte) bit.toRaw(1, (byte) 0x82));
+    }
+
+}
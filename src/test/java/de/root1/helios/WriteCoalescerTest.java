@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015 Alexander Christian <alex(at)root1.de>. All rights reserved.
+ *
+ * This file is part of HeliosKwlRemote.
+ *
+ *   HeliosKwlRemote is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   slicKnx is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with HeliosKwlRemote.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.root1.helios;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link WriteCoalescer} against a {@link HeliosSimulator}
+ *
+ * @author achristian
+ */
+public class WriteCoalescerTest extends TestCase {
+
+    private static final long WINDOW = 300;
+
+    private HeliosSimulator simulator;
+    private Helios h;
+    private WriteCoalescer coalescer;
+    private HeliosUnit unit;
+    private Variable fanspeed;
+
+    @Override
+    protected void setUp() throws Exception {
+        simulator = new HeliosSimulator();
+        h = new Helios(simulator.connect());
+        h.connect();
+        coalescer = new WriteCoalescer(h, WINDOW);
+        unit = h.getUnit(1);
+        fanspeed = h.getVariable("fanspeed");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        h.disconnect();
+        simulator.stop();
+    }
+
+    public void testBurstIsCoalesced() throws Exception {
+        // the first write goes out immediately
+        long start = System.currentTimeMillis();
+        coalescer.write(unit, fanspeed, 2);
+        waitForRegister(0x03);
+        assertTrue(System.currentTimeMillis() - start < WINDOW);
+        // a write may take several telegrams, let the rest of them arrive
+        Thread.sleep(50);
+        long telegramsPerWrite = simulator.getWriteCount();
+
+        // writes within the window: only the last one reaches the bus
+        coalescer.write(unit, fanspeed, 5);
+        coalescer.write(unit, fanspeed, 6);
+        coalescer.write(unit, fanspeed, 7);
+        waitForRegister(0x7F);
+        Thread.sleep(50);
+        assertEquals(2 * telegramsPerWrite, simulator.getWriteCount());
+
+        // after the window, a write goes out immediately again
+        Thread.sleep(2 * WINDOW);
+        start = System.currentTimeMillis();
+        coalescer.write(unit, fanspeed, 3);
+        waitForRegister(0x07);
+        assertTrue(System.currentTimeMillis() - start < WINDOW);
+        Thread.sleep(50);
+        assertEquals(3 * telegramsPerWrite, simulator.getWriteCount());
+    }
+
+    private void waitForRegister(int expected) throws InterruptedException {
+        long end = System.currentTimeMillis() + 2000;
+        while (simulator.getRegister(0x29) != expected && System.currentTimeMillis() < end) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, simulator.getRegister(0x29));
+    }
+
+}